@@ -0,0 +1,56 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Time a spring context spent creating a bean. Times are in microseconds.
+ */
+public class BeanStartup {
+  private final String context;
+  private final String beanName;
+  private final long duration;
+  private final long selfTime;
+
+  public BeanStartup(String context, String beanName, long duration, long selfTime) {
+    this.context = context;
+    this.beanName = beanName;
+    this.duration = duration;
+    this.selfTime = selfTime;
+  }
+
+  public String getContext() {
+    return context;
+  }
+
+  public String getBeanName() {
+    return beanName;
+  }
+
+  /**
+   * @return time including the creation of the beans it depends on.
+   */
+  public long getDuration() {
+    return duration;
+  }
+
+  /**
+   * @return time excluding the creation of the beans it depends on.
+   */
+  public long getSelfTime() {
+    return selfTime;
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Metrics of the request executor of a bundle running in bulkhead mode.
+ */
+public class BulkheadStats {
+  private final long bundleId;
+  private final String symbolicName;
+  private final int maxThreads;
+  private final int activeThreads;
+  private final int poolSize;
+  private final int queued;
+  private final int queueCapacity;
+  private final long completed;
+  private final long rejected;
+
+  public BulkheadStats(long bundleId, String symbolicName, int maxThreads, int activeThreads,
+    int poolSize, int queued, int queueCapacity, long completed, long rejected) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.maxThreads = maxThreads;
+    this.activeThreads = activeThreads;
+    this.poolSize = poolSize;
+    this.queued = queued;
+    this.queueCapacity = queueCapacity;
+    this.completed = completed;
+    this.rejected = rejected;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * @return number of threads handling requests.
+   */
+  public int getActiveThreads() {
+    return activeThreads;
+  }
+
+  /**
+   * @return number of threads in the pool, idle ones included.
+   */
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * @return number of requests waiting for a thread.
+   */
+  public int getQueued() {
+    return queued;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  public long getCompleted() {
+    return completed;
+  }
+
+  /**
+   * @return number of requests answered with 503 because the queue was full.
+   */
+  public long getRejected() {
+    return rejected;
+  }
+}
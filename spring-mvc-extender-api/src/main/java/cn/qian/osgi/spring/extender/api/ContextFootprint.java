@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Memory and thread footprint of the spring contexts of a bundle. The root context is included
+ * only if it is private to the bundle.
+ */
+public class ContextFootprint {
+  private final long bundleId;
+  private final String symbolicName;
+  private final String sharedRootContext;
+  private final int beanDefinitions;
+  private final int singletons;
+  private final int loadedClasses;
+  private final long retainedHeap;
+  private final int threads;
+
+  public ContextFootprint(long bundleId, String symbolicName, String sharedRootContext,
+    int beanDefinitions, int singletons, int loadedClasses, long retainedHeap, int threads) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.sharedRootContext = sharedRootContext;
+    this.beanDefinitions = beanDefinitions;
+    this.singletons = singletons;
+    this.loadedClasses = loadedClasses;
+    this.retainedHeap = retainedHeap;
+    this.threads = threads;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  /**
+   * @return name of the shared root context the bundle uses, or null.
+   */
+  public String getSharedRootContext() {
+    return sharedRootContext;
+  }
+
+  public int getBeanDefinitions() {
+    return beanDefinitions;
+  }
+
+  public int getSingletons() {
+    return singletons;
+  }
+
+  /**
+   * @return number of classes defined by the bundle class loader, -1 if the JVM does not let
+   *   the extender count them.
+   */
+  public int getLoadedClasses() {
+    return loadedClasses;
+  }
+
+  /**
+   * @return approximate bytes reachable from the singletons, -1 if not estimated.
+   */
+  public long getRetainedHeap() {
+    return retainedHeap;
+  }
+
+  /**
+   * @return number of live threads running with the bundle class loader.
+   */
+  public int getThreads() {
+    return threads;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Usage of the class metadata cache shared by the spring contexts of a bundle.
+ */
+public class MetadataCacheStats {
+  private final long bundleId;
+  private final String symbolicName;
+  private final int entries;
+  private final int capacity;
+  private final long hits;
+  private final long misses;
+  private final int resolvedPatterns;
+
+  public MetadataCacheStats(long bundleId, String symbolicName, int entries, int capacity,
+    long hits, long misses, int resolvedPatterns) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.entries = entries;
+    this.capacity = capacity;
+    this.hits = hits;
+    this.misses = misses;
+    this.resolvedPatterns = resolvedPatterns;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  /**
+   * @return number of parsed class files held.
+   */
+  public int getEntries() {
+    return entries;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return number of resource patterns whose resolution is cached.
+   */
+  public int getResolvedPatterns() {
+    return resolvedPatterns;
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Request statistics of a bundle, or of one of its handlers. Latencies are in microseconds.
+ */
+public class RequestStats {
+  private final long bundleId;
+  private final String symbolicName;
+  private final String handler;
+  private final long count;
+  private final long errors;
+  private final double rps;
+  private final long p50;
+  private final long p99;
+  private final long p999;
+  private final long max;
+
+  public RequestStats(long bundleId, String symbolicName, String handler, long count, long errors,
+    double rps, long p50, long p99, long p999, long max) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.handler = handler;
+    this.count = count;
+    this.errors = errors;
+    this.rps = rps;
+    this.p50 = p50;
+    this.p99 = p99;
+    this.p999 = p999;
+    this.max = max;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  /**
+   * @return the handler method, or null for the totals of the bundle.
+   */
+  public String getHandler() {
+    return handler;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return number of requests completed with an exception or a 5xx status.
+   */
+  public long getErrors() {
+    return errors;
+  }
+
+  /**
+   * @return average requests per second since the statistics were started or reset.
+   */
+  public double getRps() {
+    return rps;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getP999() {
+    return p999;
+  }
+
+  public long getMax() {
+    return max;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * Persisted component scan result of a bundle.
+ */
+public class ScanCacheEntry {
+  private final long bundleId;
+  private final String symbolicName;
+  private final String version;
+  private final long lastModified;
+  private final int patterns;
+  private final int classes;
+  private final long size;
+
+  public ScanCacheEntry(long bundleId, String symbolicName, String version, long lastModified,
+    int patterns, int classes, long size) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.version = version;
+    this.lastModified = lastModified;
+    this.patterns = patterns;
+    this.classes = classes;
+    this.size = size;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return number of cached scan patterns.
+   */
+  public int getPatterns() {
+    return patterns;
+  }
+
+  /**
+   * @return number of cached candidate classes.
+   */
+  public int getClasses() {
+    return classes;
+  }
+
+  /**
+   * @return size of the cache file in bytes.
+   */
+  public long getSize() {
+    return size;
+  }
+}
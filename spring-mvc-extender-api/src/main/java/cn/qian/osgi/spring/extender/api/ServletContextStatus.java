@@ -0,0 +1,54 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+public class ServletContextStatus {
+  private final String contextPath;
+  private final ServletContextState state;
+  private final int waitingTasks;
+  private final String failure;
+
+  public ServletContextStatus(String contextPath, ServletContextState state, int waitingTasks,
+    String failure) {
+    this.contextPath = contextPath;
+    this.state = state;
+    this.waitingTasks = waitingTasks;
+    this.failure = failure;
+  }
+
+  public String getContextPath() {
+    return contextPath;
+  }
+
+  public ServletContextState getState() {
+    return state;
+  }
+
+  /**
+   * @return tasks, e.g. spring mvc bundles to start, waiting for the context to be live.
+   */
+  public int getWaitingTasks() {
+    return waitingTasks;
+  }
+
+  /**
+   * @return why the context could not be created, or null.
+   */
+  public String getFailure() {
+    return failure;
+  }
+}
@@ -18,6 +18,8 @@ package cn.qian.osgi.spring.extender.api;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletContext;
 import org.osgi.framework.Bundle;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -41,9 +43,57 @@ public interface SpringMvcConfigurationManager {
 
   void scanAndLoadSpringMvcConfigs();
 
+  /**
+   * Unregister all dispatchers, then close their spring contexts in parallel.
+   */
   void destroyAllSpringMvcConfigs();
 
+  /**
+   * Like {@link #destroyAllSpringMvcConfigs()}.
+   *
+   * @return the names of the spring contexts which were not closed in time, they keep closing in
+   *   the background.
+   */
+  Collection<String> destroyAllSpringMvcConfigsWithReport();
+
   Collection<ConfigurableApplicationContext> listSpringContexts();
 
   Collection<ServletContext> listServletContexts();
+
+  Collection<ScanCacheEntry> listScanCache();
+
+  void purgeScanCache(long bndId);
+
+  void purgeScanCache();
+
+  /**
+   * @param estimateHeap walk the object graphs of the singletons to estimate the heap they
+   *   retain, which may take a while for large contexts.
+   */
+  Collection<ContextFootprint> listFootprints(boolean estimateHeap);
+
+  /**
+   * @return completes with the servlet context of the path once it is live, or fails with the
+   *   reason it could not be created.
+   */
+  CompletableFuture<ServletContext> whenServletContextReady(String contextPath);
+
+  /**
+   * Like {@link #whenServletContextReady(String)}, but fails with a
+   * {@link java.util.concurrent.TimeoutException} if the context is not live in time.
+   */
+  CompletableFuture<ServletContext> whenServletContextReady(String contextPath, long timeout,
+    TimeUnit unit);
+
+  Collection<ServletContextStatus> listServletContextStatus();
+
+  /**
+   * @return the timelines of the last startup of each spring mvc bundle.
+   */
+  Collection<StartupReport> listStartupReports();
+
+  /**
+   * @return the caches shared by the spring contexts of the current wiring of each bundle.
+   */
+  Collection<MetadataCacheStats> listMetadataCaches();
 }
@@ -22,6 +22,20 @@ public class SpringMvcConstants {
   public static final String CONTEXT_ROOT = "Spring-Mvc-ContextPath";
   public static final String ROOT_CONTEXT_CONFIG_CLASSES = "Spring-Root-Context-Config-Classes";
   public static final String CONTEXT_CONFIG_CLASSES = "Spring-Context-Config-Classes";
+  public static final String ROOT_CONTEXT_NAME = "Spring-Root-Context-Name";
+  public static final String STARTUP_PRIORITY = "Spring-Mvc-Startup-Priority";
+  public static final String SCAN_CACHE = "Spring-Mvc-Scan-Cache";
+  public static final String WARMUP = "Spring-Mvc-Warmup";
+  public static final String WARMUP_PATHS = "Spring-Mvc-Warmup-Paths";
+  public static final String LAZY_INIT = "Spring-Lazy-Init";
+  public static final String UPDATE_MODE = "Spring-Mvc-Update-Mode";
+  public static final String UPDATE_MODE_RESTART = "restart";
+  public static final String UPDATE_MODE_BLUE_GREEN = "blue-green";
+  public static final String DRAIN_TIMEOUT = "Spring-Mvc-Drain-Timeout";
+  public static final String MAX_THREADS = "Spring-Mvc-Max-Threads";
+  public static final String MAX_QUEUE = "Spring-Mvc-Max-Queue";
+  public static final String RESPONSE_CACHE = "Spring-Mvc-Response-Cache";
+  public static final String STATIC_RESOURCES = "Spring-Mvc-Static-Resources";
   public static final String EXTENDER_NAME = "cn.qian.osgi.spring.extender";
   public static final String CONTEXT_NAME_PREFIX =
       SpringMvcConstants.EXTENDER_NAME + ".spring.context.";
@@ -30,4 +44,125 @@ public class SpringMvcConstants {
   public static final String DISPATCHER_NAME_PREFIX =
     SpringMvcConstants.EXTENDER_NAME + ".dispatcher.servlet.";
   public static final String BUNDLE_CONTEXT = "bundleContext";
+  /**
+   * Framework property: number of threads used to refresh spring contexts in parallel.
+   */
+  public static final String STARTUP_THREADS_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".startup.threads";
+  /**
+   * Framework property: set to false to disable the persistent component scan cache.
+   */
+  public static final String SCAN_CACHE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".scan-cache.enabled";
+  /**
+   * Framework property: default of the {@link #WARMUP} header.
+   */
+  public static final String WARMUP_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".warmup.enabled";
+  /**
+   * Framework property: default of the {@link #LAZY_INIT} header.
+   */
+  public static final String LAZY_INIT_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".lazy-init.enabled";
+  /**
+   * Framework property: default of the {@link #UPDATE_MODE} header.
+   */
+  public static final String UPDATE_MODE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".update.mode";
+  /**
+   * Framework property: default of the {@link #DRAIN_TIMEOUT} header, in milliseconds.
+   */
+  public static final String DRAIN_TIMEOUT_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".update.drain-timeout";
+  /**
+   * Framework property: how long, in milliseconds, a stopped blue/green bundle keeps serving while
+   * waiting for its new version to start.
+   */
+  public static final String STANDBY_TIMEOUT_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".update.standby-timeout";
+  /**
+   * Framework property: set to false to disable the request statistics.
+   */
+  public static final String STATS_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".stats.enabled";
+  /**
+   * Framework property: fraction (0 to 1) of the requests whose phases are profiled, 0 by
+   * default.
+   */
+  public static final String PROFILE_SAMPLE_RATE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".profile.sample-rate";
+  /**
+   * Framework property: milliseconds after which a request is captured as slow, 0 (the default)
+   * disables it.
+   */
+  public static final String PROFILE_SLOW_THRESHOLD_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".profile.slow-threshold";
+  /**
+   * Framework property: milliseconds to wait for more bundle events before handling a burst of
+   * them.
+   */
+  public static final String EVENTS_COALESCE_WINDOW_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".events.coalesce-window";
+
+  /**
+   * Framework property: threads running the tasks of servlet contexts, defaults to the CPU count.
+   */
+  public static final String SERVLET_CONTEXT_THREADS_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".servlet-context.threads";
+
+  /**
+   * Framework property: milliseconds a task waits for its servlet context before it is dropped,
+   * 0 waits forever.
+   */
+  public static final String SERVLET_CONTEXT_TIMEOUT_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".servlet-context.timeout";
+
+  /**
+   * Framework property: default of the {@link #RESPONSE_CACHE} header, 0 disables the cache.
+   */
+  public static final String RESPONSE_CACHE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".response-cache.size";
+
+  /**
+   * Framework property: max-age in seconds of the {@link #STATIC_RESOURCES} responses.
+   */
+  public static final String STATIC_MAX_AGE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".static.max-age";
+
+  /**
+   * Framework property: bytes of small {@link #STATIC_RESOURCES} kept in memory per bundle.
+   */
+  public static final String STATIC_MEMORY_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".static.memory";
+
+  /**
+   * Framework property: parsed class files cached per bundle, 0 disables the cache.
+   */
+  public static final String METADATA_CACHE_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".metadata-cache.size";
+
+  /**
+   * Framework property: set to true to route the requests of each servlet context through a
+   * single servlet instead of registering a whiteboard servlet per bundle.
+   */
+  public static final String ROUTER_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".router.enabled";
+  /**
+   * Framework property: set to true to look up request mappings in a trie of path segments
+   * before falling back to the handler mappings of the dispatcher servlet.
+   */
+  public static final String TRIE_MAPPING_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".trie-mapping.enabled";
+  /**
+   * Framework property: number of threads used to close spring contexts in parallel when all of
+   * them are stopped.
+   */
+  public static final String SHUTDOWN_THREADS_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".shutdown.threads";
+  /**
+   * Framework property: milliseconds to wait for all spring contexts to close when all of them
+   * are stopped.
+   */
+  public static final String SHUTDOWN_TIMEOUT_PROPERTY =
+    SpringMvcConstants.EXTENDER_NAME + ".shutdown.timeout";
 }
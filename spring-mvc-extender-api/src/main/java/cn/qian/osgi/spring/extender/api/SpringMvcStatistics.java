@@ -0,0 +1,43 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+import java.util.Collection;
+
+/**
+ * Request statistics of the spring mvc bundles.
+ */
+public interface SpringMvcStatistics {
+  /**
+   * @return totals of each spring mvc bundle.
+   */
+  Collection<RequestStats> getBundleStats();
+
+  /**
+   * @return statistics of each handler of the bundle, which has been requested at least once.
+   */
+  Collection<RequestStats> getHandlerStats(long bndId);
+
+  void resetStats(long bndId);
+
+  void resetStats();
+
+  /**
+   * @return metrics of the bundles handling requests on their own executors.
+   */
+  Collection<BulkheadStats> getBulkheadStats();
+}
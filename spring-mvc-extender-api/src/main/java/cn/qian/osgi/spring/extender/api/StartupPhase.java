@@ -0,0 +1,50 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+/**
+ * A phase of the startup of a spring mvc bundle. Times are in milliseconds.
+ */
+public class StartupPhase {
+  private final String name;
+  private final long offset;
+  private final long duration;
+
+  public StartupPhase(String name, long offset, long duration) {
+    this.name = name;
+    this.offset = offset;
+    this.duration = duration;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return time from the start of the bundle to the start of the phase.
+   */
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return duration of the phase, or -1 if it is still running.
+   */
+  public long getDuration() {
+    return duration;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.api;
+
+import java.util.List;
+
+/**
+ * Timeline of the last startup of a spring mvc bundle.
+ */
+public class StartupReport {
+  private final long bundleId;
+  private final String symbolicName;
+  private final long startedAt;
+  private final long totalTime;
+  private final List<StartupPhase> phases;
+  private final int beans;
+  private final List<BeanStartup> slowestBeans;
+
+  public StartupReport(long bundleId, String symbolicName, long startedAt, long totalTime,
+    List<StartupPhase> phases, int beans, List<BeanStartup> slowestBeans) {
+    this.bundleId = bundleId;
+    this.symbolicName = symbolicName;
+    this.startedAt = startedAt;
+    this.totalTime = totalTime;
+    this.phases = phases;
+    this.beans = beans;
+    this.slowestBeans = slowestBeans;
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public String getSymbolicName() {
+    return symbolicName;
+  }
+
+  /**
+   * @return epoch milliseconds the startup was requested at.
+   */
+  public long getStartedAt() {
+    return startedAt;
+  }
+
+  /**
+   * @return milliseconds until the dispatcher was published, or -1 if it is still starting.
+   */
+  public long getTotalTime() {
+    return totalTime;
+  }
+
+  /**
+   * @return the phases in the order they started.
+   */
+  public List<StartupPhase> getPhases() {
+    return phases;
+  }
+
+  /**
+   * @return number of beans created by the spring contexts of the bundle.
+   */
+  public int getBeans() {
+    return beans;
+  }
+
+  /**
+   * @return the beans with the highest self time, slowest first.
+   */
+  public List<BeanStartup> getSlowestBeans() {
+    return slowestBeans;
+  }
+}
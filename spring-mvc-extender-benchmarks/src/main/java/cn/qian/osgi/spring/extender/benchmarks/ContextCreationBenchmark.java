@@ -0,0 +1,56 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.benchmarks;
+
+import cn.qian.osgi.demo1.config.MvcConfiguration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+/**
+ * Creating and refreshing a spring mvc context from the demo-mvc1 MvcConfiguration, the way the
+ * extender does it.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(3)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ContextCreationBenchmark {
+  static GenericWebApplicationContext createContext() {
+    GenericWebApplicationContext appCtx = new GenericWebApplicationContext();
+    appCtx.setServletContext(new MockServletContext());
+    new AnnotatedBeanDefinitionReader(appCtx).register(MvcConfiguration.class);
+    return appCtx;
+  }
+
+  @Benchmark
+  public GenericWebApplicationContext refresh() {
+    GenericWebApplicationContext appCtx = createContext();
+    appCtx.refresh();
+    appCtx.close();
+    return appCtx;
+  }
+}
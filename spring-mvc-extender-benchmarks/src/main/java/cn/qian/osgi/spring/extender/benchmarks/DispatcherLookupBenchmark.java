@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.benchmarks;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import cn.qian.osgi.spring.extender.impl.DispatcherEntry;
+import cn.qian.osgi.spring.extender.impl.DispatcherRegistry;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME;
+
+/**
+ * Finding the dispatcher of a bundle: the bundle id keyed registry, a synchronized map, and the
+ * former getDispacher() approach of filtering the servlet registrations by name.
+ * Run with -t to compare them under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DispatcherLookupBenchmark {
+  @Param({"10", "100"})
+  int bundles;
+  private final DispatcherRegistry registry = new DispatcherRegistry();
+  private final Map<Long, DispatcherEntry> synchronizedMap = new HashMap<>();
+  private final List<Dictionary<String, Object>> registrations = new ArrayList<>();
+  private final List<DispatcherEntry> registered = new ArrayList<>();
+  private Bundle[] lookups;
+
+  @Setup
+  public void setUp() {
+    lookups = new Bundle[bundles];
+    for (int i = 0; i < bundles; i++) {
+      Bundle bnd = Stubs.bundle(i, "bench.bundle" + i);
+      DispatcherEntry entry = registry.reserve(bnd);
+      entry.compareAndSetState(DispatcherEntry.State.STARTING, DispatcherEntry.State.ACTIVE);
+      synchronizedMap.put(bnd.getBundleId(), entry);
+      Dictionary<String, Object> props = new Hashtable<>();
+      props.put(HTTP_WHITEBOARD_SERVLET_NAME,
+        SpringMvcConstants.DISPATCHER_NAME_PREFIX + bnd.getSymbolicName());
+      props.put(SpringMvcConstants.EXTENDER_NAME, "true");
+      registrations.add(props);
+      registered.add(entry);
+      lookups[i] = bnd;
+    }
+  }
+
+  /**
+   * Bundle to look up next, per benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    private int position;
+
+    Bundle next(Bundle[] lookups) {
+      position = (position + 1) % lookups.length;
+      return lookups[position];
+    }
+  }
+
+  @Benchmark
+  public DispatcherEntry registry(Cursor cursor) {
+    return registry.getActive(cursor.next(lookups).getBundleId());
+  }
+
+  @Benchmark
+  public DispatcherEntry synchronizedMap(Cursor cursor) {
+    long id = cursor.next(lookups).getBundleId();
+    synchronized (synchronizedMap) {
+      return synchronizedMap.get(id);
+    }
+  }
+
+  @Benchmark
+  public DispatcherEntry serviceFilter(Cursor cursor) throws InvalidSyntaxException {
+    Bundle bnd = cursor.next(lookups);
+    Filter filter = FrameworkUtil.createFilter(String.format("(%s=%s)",
+      HTTP_WHITEBOARD_SERVLET_NAME,
+      SpringMvcConstants.DISPATCHER_NAME_PREFIX + bnd.getSymbolicName()));
+    for (int i = 0; i < registrations.size(); i++) {
+      if (filter.match(registrations.get(i))) {
+        return registered.get(i);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.benchmarks;
+
+import cn.qian.osgi.spring.extender.impl.BundleDispatcherServlet;
+import cn.qian.osgi.spring.extender.impl.PaxWebTcclConfiguration;
+import cn.qian.osgi.spring.extender.impl.RequestStatsRecorder;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+/**
+ * End-to-end requests through the extender dispatcher servlet, using the demo-mvc1 controllers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestThroughputBenchmark {
+  /**
+   * Record the request statistics, as the extender does by default.
+   */
+  @Param({"false", "true"})
+  boolean stats;
+  private GenericWebApplicationContext appCtx;
+  private BundleDispatcherServlet dispatcher;
+
+  @Setup
+  public void setUp() throws ServletException {
+    appCtx = ContextCreationBenchmark.createContext();
+    if (stats) {
+      appCtx.getBeanFactory()
+        .registerSingleton(RequestStatsRecorder.BEAN_NAME, new RequestStatsRecorder());
+    }
+    appCtx.refresh();
+    // Not opened: the dispatcher switches the thread context class loader on every request.
+    PaxWebTcclConfiguration tcclConfiguration = new PaxWebTcclConfiguration(null);
+    dispatcher = new BundleDispatcherServlet(appCtx, RequestThroughputBenchmark.class
+      .getClassLoader(), tcclConfiguration);
+    dispatcher.init(new MockServletConfig(appCtx.getServletContext(), "bench"));
+  }
+
+  @TearDown
+  public void tearDown() {
+    dispatcher.destroy();
+    appCtx.close();
+  }
+
+  private MockHttpServletResponse get(String pathInfo) throws Exception {
+    MockHttpServletRequest request =
+      new MockHttpServletRequest(appCtx.getServletContext(), "GET", "/mvc1" + pathInfo);
+    request.setContextPath("/mvc1");
+    request.setServletPath("");
+    request.setPathInfo(pathInfo);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    dispatcher.service(request, response);
+    return response;
+  }
+
+  @Benchmark
+  public MockHttpServletResponse text() throws Exception {
+    return get("/");
+  }
+
+  @Benchmark
+  public MockHttpServletResponse json() throws Exception {
+    return get("/hello/world");
+  }
+}
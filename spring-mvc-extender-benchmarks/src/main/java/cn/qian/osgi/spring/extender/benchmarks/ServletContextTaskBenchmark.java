@@ -0,0 +1,74 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.benchmarks;
+
+import cn.qian.osgi.spring.extender.impl.ServletContextManager;
+import cn.qian.osgi.spring.extender.impl.SpringMvcBundleTracker;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Throughput of {@link ServletContextManager#submitServletContextTask} for a live servlet
+ * context, from submission until the task ran.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ServletContextTaskBenchmark {
+  private static final int TASKS = 1000;
+  private ServletContextManager servletContextManager;
+
+  @Setup
+  public void setUp() {
+    BundleContext extenderContext = Stubs.bundleContext();
+    servletContextManager =
+      new ServletContextManager(extenderContext, new SpringMvcBundleTracker(extenderContext));
+    servletContextManager.addingService(Stubs.servletContextReference("/"));
+    servletContextManager.addingService(Stubs.servletContextReference("/bench"));
+  }
+
+  @TearDown
+  public void tearDown() {
+    servletContextManager.shutdown();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(TASKS)
+  public void submitLive() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(TASKS);
+    for (int i = 0; i < TASKS; i++) {
+      servletContextManager.submitServletContextTask("/bench", done::countDown);
+    }
+    done.await();
+  }
+}
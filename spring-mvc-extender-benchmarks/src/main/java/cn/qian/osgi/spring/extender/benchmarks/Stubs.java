@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Hashtable;
+import javax.servlet.ServletContext;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.springframework.mock.web.MockServletContext;
+
+/**
+ * Minimal OSGi objects, answering only what the benchmarked code asks for.
+ */
+final class Stubs {
+  private Stubs() {
+  }
+
+  static <T> T stub(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type},
+      (proxy, method, args) -> {
+        Object result = handler.invoke(proxy, method, args);
+        if (result != null) {
+          return result;
+        }
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+          return false;
+        } else if (returnType == int.class) {
+          return 0;
+        } else if (returnType == long.class) {
+          return 0L;
+        }
+        return null;
+      }));
+  }
+
+  static Bundle bundle(long id, String symbolicName) {
+    return stub(Bundle.class, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getBundleId":
+          return id;
+        case "getSymbolicName":
+          return symbolicName;
+        case "getState":
+          return Bundle.ACTIVE;
+        case "getHeaders":
+          return new Hashtable<String, String>();
+        case "hashCode":
+          return Long.hashCode(id);
+        case "equals":
+          return proxy == args[0];
+        default:
+          return null;
+      }
+    });
+  }
+
+  static BundleContext bundleContext() {
+    return stub(BundleContext.class, (proxy, method, args) -> {
+      if ("getServiceReferences".equals(method.getName())) {
+        return Collections.emptyList();
+      }
+      return null;
+    });
+  }
+
+  /**
+   * @return a reference to a ServletContext service, as tracked by the ServletContextManager.
+   */
+  static ServiceReference<ServletContext> servletContextReference(String contextPath) {
+    MockServletContext servletContext = new MockServletContext();
+    servletContext.setContextPath("/".equals(contextPath) ? "" : contextPath);
+    BundleContext registrant = stub(BundleContext.class, (proxy, method, args) ->
+      "getService".equals(method.getName()) ? servletContext : null);
+    Bundle bundle = stub(Bundle.class, (proxy, method, args) ->
+      "getBundleContext".equals(method.getName()) ? registrant : null);
+    @SuppressWarnings("unchecked")
+    ServiceReference<ServletContext> reference = stub(ServiceReference.class,
+      (proxy, method, args) -> "getBundle".equals(method.getName()) ? bundle : null);
+    return reference;
+  }
+}
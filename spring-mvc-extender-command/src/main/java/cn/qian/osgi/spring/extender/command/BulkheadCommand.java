@@ -0,0 +1,51 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcStatistics;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "bulkheads", description = "Show Request Executors of Bundles")
+public class BulkheadCommand implements Action {
+  @Reference
+  private SpringMvcStatistics springMvcStatistics;
+
+  @Override
+  public Object execute() {
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("Active").alignRight();
+    table.column("Pool").alignRight();
+    table.column("MaxThreads").alignRight();
+    table.column("Queued").alignRight();
+    table.column("QueueCapacity").alignRight();
+    table.column("Completed").alignRight();
+    table.column("Rejected").alignRight();
+    springMvcStatistics.getBulkheadStats().forEach(s -> table.addRow().addContent(
+      s.getBundleId(), s.getSymbolicName(), s.getActiveThreads(), s.getPoolSize(),
+      s.getMaxThreads(), s.getQueued(), s.getQueueCapacity(), s.getCompleted(),
+      s.getRejected()));
+    table.print(System.out);
+    return null;
+  }
+}
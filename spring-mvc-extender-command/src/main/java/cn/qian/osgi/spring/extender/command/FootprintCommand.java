@@ -0,0 +1,64 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.ContextFootprint;
+import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "footprint",
+  description = "Show Memory and Thread Footprint of Spring Mvc Contexts")
+public class FootprintCommand implements Action {
+  @Option(name = "-n", aliases = "--no-heap", description = "Skip the retained heap estimation")
+  boolean noHeap;
+  @Argument(name = "bundleId", description = "Bundle ID", multiValued = true)
+  List<Long> bundleIds;
+  @Reference
+  private SpringMvcConfigurationManager springMvcConfigurationManager;
+
+  @Override
+  public Object execute() {
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("SharedRoot");
+    table.column("BeanDefinitions").alignRight();
+    table.column("Singletons").alignRight();
+    table.column("Classes").alignRight();
+    table.column("RetainedHeap(KB)").alignRight();
+    table.column("Threads").alignRight();
+    springMvcConfigurationManager.listFootprints(!noHeap).stream()
+      .filter(f -> bundleIds == null || bundleIds.contains(f.getBundleId()))
+      .sorted(Comparator.comparingLong(ContextFootprint::getRetainedHeap).reversed())
+      .forEach(f -> table.addRow().addContent(f.getBundleId(), f.getSymbolicName(),
+        f.getSharedRootContext() == null ? "" : f.getSharedRootContext(),
+        f.getBeanDefinitions(), f.getSingletons(),
+        f.getLoadedClasses() < 0 ? "unavailable" : f.getLoadedClasses(),
+        f.getRetainedHeap() < 0 ? "n/a" : f.getRetainedHeap() / 1024, f.getThreads()));
+    table.print(System.out);
+    return null;
+  }
+}
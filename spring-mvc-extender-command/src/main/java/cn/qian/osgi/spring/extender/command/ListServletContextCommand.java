@@ -21,8 +21,10 @@ import java.util.Collection;
 import javax.servlet.ServletContext;
 import org.apache.karaf.shell.api.action.Action;
 import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Reference;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
 
 @Service
 @Command(scope = "spring", name = "list-servlet-contexts", description = "List Spring Mvc Servlet Contexts")
@@ -30,8 +32,24 @@ public class ListServletContextCommand implements Action {
   @Reference
   private SpringMvcConfigurationManager springMvcConfigurationManager;
 
+  @Option(name = "-s", aliases = "--status",
+    description = "Show the state and the waiting tasks of every known context path")
+  private boolean status;
+
   @Override
   public Object execute() {
+    if (status) {
+      ShellTable table = new ShellTable();
+      table.column("ContextPath");
+      table.column("State");
+      table.column("WaitingTasks").alignRight();
+      table.column("Failure");
+      springMvcConfigurationManager.listServletContextStatus().forEach(s -> table.addRow()
+        .addContent(s.getContextPath(), s.getState(), s.getWaitingTasks(),
+          s.getFailure() == null ? "" : s.getFailure()));
+      table.print(System.out);
+      return null;
+    }
     Collection<ServletContext>
       contexts = springMvcConfigurationManager.listServletContexts();
     contexts.forEach(c -> System.out.println(c.getServletContextName()));
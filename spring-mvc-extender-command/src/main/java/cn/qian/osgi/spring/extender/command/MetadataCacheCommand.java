@@ -0,0 +1,60 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
+import java.util.List;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "metadata-cache",
+  description = "Show the Class Metadata and Resource Pattern Caches of Spring Mvc Bundles")
+public class MetadataCacheCommand implements Action {
+  @Argument(name = "bundleId", description = "Bundle ID", multiValued = true)
+  List<Long> bundleIds;
+  @Reference
+  private SpringMvcConfigurationManager springMvcConfigurationManager;
+
+  @Override
+  public Object execute() {
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("Classes").alignRight();
+    table.column("Capacity").alignRight();
+    table.column("Hits").alignRight();
+    table.column("Misses").alignRight();
+    table.column("HitRatio").alignRight();
+    table.column("Patterns").alignRight();
+    springMvcConfigurationManager.listMetadataCaches().stream()
+      .filter(s -> bundleIds == null || bundleIds.contains(s.getBundleId()))
+      .forEach(s -> {
+        long lookups = s.getHits() + s.getMisses();
+        table.addRow().addContent(s.getBundleId(), s.getSymbolicName(), s.getEntries(),
+          s.getCapacity(), s.getHits(), s.getMisses(),
+          lookups == 0 ? "-" : String.format("%.1f%%", s.getHits() * 100.0 / lookups),
+          s.getResolvedPatterns());
+      });
+    table.print(System.out);
+    return null;
+  }
+}
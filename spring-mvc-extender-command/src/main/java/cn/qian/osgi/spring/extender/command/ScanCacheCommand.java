@@ -0,0 +1,63 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
+import java.util.List;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "scan-cache", description = "List or Purge Component Scan Cache")
+public class ScanCacheCommand implements Action {
+  @Option(name = "-p", aliases = "--purge", description = "Purge the cache of the bundles, or all")
+  boolean purge;
+  @Argument(name = "bundleId", description = "Bundle ID", multiValued = true)
+  List<Long> bundleIds;
+  @Reference
+  private SpringMvcConfigurationManager springMvcConfigurationManager;
+
+  @Override
+  public Object execute() {
+    if (purge) {
+      if (bundleIds == null) {
+        springMvcConfigurationManager.purgeScanCache();
+      } else {
+        bundleIds.forEach(springMvcConfigurationManager::purgeScanCache);
+      }
+      return null;
+    }
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("Version");
+    table.column("Patterns");
+    table.column("Classes");
+    table.column("Size");
+    springMvcConfigurationManager.listScanCache().stream()
+      .filter(e -> bundleIds == null || bundleIds.contains(e.getBundleId()))
+      .forEach(e -> table.addRow().addContent(e.getBundleId(), e.getSymbolicName(),
+        e.getVersion(), e.getPatterns(), e.getClasses(), e.getSize()));
+    table.print(System.out);
+    return null;
+  }
+}
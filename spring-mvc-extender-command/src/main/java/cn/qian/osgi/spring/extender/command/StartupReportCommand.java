@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
+import cn.qian.osgi.spring.extender.api.StartupPhase;
+import cn.qian.osgi.spring.extender.api.StartupReport;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "startup-report",
+  description = "Show Where the Startup of Spring Mvc Bundles Spent Its Time")
+public class StartupReportCommand implements Action {
+  private static final String[] PHASES = {"servlet-context-wait", "startup-queue-wait",
+    "root-config-classes", "root-refresh", "config-classes", "refresh", "dispatcher-init"};
+  @Argument(name = "bundleId", description = "Bundle ID, to show its phases and slowest beans",
+    multiValued = true)
+  List<Long> bundleIds;
+  @Reference
+  private SpringMvcConfigurationManager springMvcConfigurationManager;
+
+  @Override
+  public Object execute() {
+    if (bundleIds == null) {
+      printSummary();
+    } else {
+      springMvcConfigurationManager.listStartupReports().stream()
+        .filter(r -> bundleIds.contains(r.getBundleId()))
+        .forEach(this::printDetails);
+    }
+    return null;
+  }
+
+  private void printSummary() {
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("Total(ms)").alignRight();
+    for (String phase : PHASES) {
+      table.column(phase).alignRight();
+    }
+    table.column("Beans").alignRight();
+    springMvcConfigurationManager.listStartupReports().stream()
+      .sorted(Comparator.comparingLong(StartupReport::getTotalTime).reversed())
+      .forEach(r -> {
+        Object[] row = new Object[PHASES.length + 4];
+        row[0] = r.getBundleId();
+        row[1] = r.getSymbolicName();
+        row[2] = r.getTotalTime() < 0 ? "starting" : r.getTotalTime();
+        for (int i = 0; i < PHASES.length; i++) {
+          row[i + 3] = getDuration(r, PHASES[i]);
+        }
+        row[row.length - 1] = r.getBeans();
+        table.addRow().addContent(row);
+      });
+    table.print(System.out);
+  }
+
+  private static long getDuration(StartupReport report, String phase) {
+    return report.getPhases().stream()
+      .filter(p -> p.getName().equals(phase) && p.getDuration() > 0)
+      .mapToLong(StartupPhase::getDuration)
+      .sum();
+  }
+
+  private void printDetails(StartupReport report) {
+    System.out.printf("%s [%d]%n", report.getSymbolicName(), report.getBundleId());
+    ShellTable phases = new ShellTable();
+    phases.column("Phase");
+    phases.column("Start(ms)").alignRight();
+    phases.column("Duration(ms)").alignRight();
+    report.getPhases().forEach(p -> phases.addRow().addContent(p.getName(), p.getOffset(),
+      p.getDuration() < 0 ? "running" : p.getDuration()));
+    phases.print(System.out);
+    System.out.printf("Slowest of %d beans:%n", report.getBeans());
+    ShellTable beans = new ShellTable();
+    beans.column("Context");
+    beans.column("Bean");
+    beans.column("Self(us)").alignRight();
+    beans.column("Total(us)").alignRight();
+    report.getSlowestBeans().forEach(b -> beans.addRow().addContent(b.getContext(),
+      b.getBeanName(), b.getSelfTime(), b.getDuration()));
+    beans.print(System.out);
+  }
+}
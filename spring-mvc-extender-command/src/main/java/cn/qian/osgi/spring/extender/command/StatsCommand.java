@@ -0,0 +1,79 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.command;
+
+import cn.qian.osgi.spring.extender.api.RequestStats;
+import cn.qian.osgi.spring.extender.api.SpringMvcStatistics;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+@Service
+@Command(scope = "spring", name = "stats", description = "Show Request Statistics")
+public class StatsCommand implements Action {
+  @Option(name = "-r", aliases = "--reset", description = "Reset the statistics of the bundles, or all")
+  boolean reset;
+  @Argument(name = "bundleId", description = "Bundle ID, to show statistics per handler",
+    multiValued = true)
+  List<Long> bundleIds;
+  @Reference
+  private SpringMvcStatistics springMvcStatistics;
+
+  @Override
+  public Object execute() {
+    if (reset) {
+      if (bundleIds == null) {
+        springMvcStatistics.resetStats();
+      } else {
+        bundleIds.forEach(springMvcStatistics::resetStats);
+      }
+      return null;
+    }
+    Collection<RequestStats> stats;
+    if (bundleIds == null) {
+      stats = springMvcStatistics.getBundleStats();
+    } else {
+      stats = new ArrayList<>();
+      for (Long bundleId : bundleIds) {
+        stats.addAll(springMvcStatistics.getHandlerStats(bundleId));
+      }
+    }
+    ShellTable table = new ShellTable();
+    table.column("BundleID");
+    table.column("BundleName");
+    table.column("Handler");
+    table.column("Requests").alignRight();
+    table.column("Errors").alignRight();
+    table.column("RPS").alignRight();
+    table.column("P50(us)").alignRight();
+    table.column("P99(us)").alignRight();
+    table.column("P999(us)").alignRight();
+    table.column("Max(us)").alignRight();
+    stats.forEach(s -> table.addRow().addContent(s.getBundleId(), s.getSymbolicName(),
+      s.getHandler() == null ? "*" : s.getHandler(), s.getCount(), s.getErrors(),
+      String.format("%.2f", s.getRps()), s.getP50(), s.getP99(), s.getP999(), s.getMax()));
+    table.print(System.out);
+    return null;
+  }
+}
@@ -39,7 +39,8 @@ public class StopCommand implements Action {
   @Override
   public Object execute() {
     if (stopAll) {
-      springMvcConfigurationManager.destroyAllSpringMvcConfigs();
+      springMvcConfigurationManager.destroyAllSpringMvcConfigsWithReport().forEach(
+          (name) -> System.out.println("Still closing after the shutdown timeout: " + name));
     } else if (bundleIds != null) {
       bundleIds.forEach(springMvcConfigurationManager::destroySpringMvcConfig);
     }
@@ -17,7 +17,10 @@
 package cn.qian.osgi.spring.extender;
 
 import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
+import cn.qian.osgi.spring.extender.api.SpringMvcStatistics;
+import cn.qian.osgi.spring.extender.impl.BundleEventPipeline;
 import cn.qian.osgi.spring.extender.impl.ServletContextManager;
+import cn.qian.osgi.spring.extender.impl.SpringMvcBundleTracker;
 import cn.qian.osgi.spring.extender.impl.SpringMvcConfigurationListener;
 import cn.qian.osgi.spring.extender.impl.SpringMvcConfigurationManagerImpl;
 import java.util.Hashtable;
@@ -28,21 +31,27 @@ import org.osgi.util.tracker.ServiceTracker;
 
 public class Activator implements BundleActivator {
   private SpringMvcConfigurationListener configurationListener;
+  private BundleEventPipeline eventPipeline;
+  private SpringMvcBundleTracker bundleTracker;
   private ServletContextManager servletContextManager;
+  private SpringMvcConfigurationManagerImpl springMvcConfigurationManager;
   private ServiceTracker<ServletContext, ServletContext> serviceTracker;
 
   @Override
   public void start(BundleContext bundleContext) {
-    servletContextManager = new ServletContextManager(bundleContext);
+    bundleTracker = new SpringMvcBundleTracker(bundleContext);
+    bundleTracker.open();
+    servletContextManager = new ServletContextManager(bundleContext, bundleTracker);
     serviceTracker = new ServiceTracker<>(bundleContext, ServletContext.class, servletContextManager);
     serviceTracker.open();
-    SpringMvcConfigurationManager springMvcConfigurationManager =
-        new SpringMvcConfigurationManagerImpl(bundleContext, servletContextManager);
-    bundleContext.registerService(SpringMvcConfigurationManager.class, springMvcConfigurationManager,
-        new Hashtable<>());
+    springMvcConfigurationManager =
+        new SpringMvcConfigurationManagerImpl(bundleContext, servletContextManager, bundleTracker);
+    bundleContext.registerService(new String[] {SpringMvcConfigurationManager.class.getName(),
+        SpringMvcStatistics.class.getName()}, springMvcConfigurationManager, new Hashtable<>());
     springMvcConfigurationManager.scanAndLoadSpringMvcConfigs();
-    configurationListener =
-        new SpringMvcConfigurationListener(springMvcConfigurationManager, servletContextManager);
+    eventPipeline = new BundleEventPipeline(bundleContext, springMvcConfigurationManager,
+        servletContextManager);
+    configurationListener = new SpringMvcConfigurationListener(eventPipeline);
     bundleContext.addBundleListener(configurationListener);
   }
 
@@ -52,6 +61,14 @@ public class Activator implements BundleActivator {
       bundleContext.removeBundleListener(configurationListener);
     }
     configurationListener = null;
+    if (eventPipeline != null) {
+      eventPipeline.shutdown();
+      eventPipeline = null;
+    }
+    if (springMvcConfigurationManager != null) {
+      springMvcConfigurationManager.shutdown();
+      springMvcConfigurationManager = null;
+    }
     if (servletContextManager != null) {
       servletContextManager.shutdown();
       servletContextManager = null;
@@ -60,5 +77,9 @@ public class Activator implements BundleActivator {
       serviceTracker.close();
       serviceTracker = null;
     }
+    if (bundleTracker != null) {
+      bundleTracker.close();
+      bundleTracker = null;
+    }
   }
 }
@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.GenericServlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Stable whiteboard servlet in front of the dispatcher of a bundle, so that a new generation of
+ * the dispatcher could be swapped in behind the same url pattern when the bundle is updated.
+ * It is registered by the extender, so it survives the stopping of the bundle. The context class
+ * loader is set by the dispatcher, as configured by the {@link PaxWebTcclConfiguration}.
+ */
+public class BlueGreenServlet extends GenericServlet {
+  private static final long serialVersionUID = 1L;
+  private transient volatile Generation current;
+
+  public BlueGreenServlet(BundleDispatcherServlet dispatcher) {
+    current = new Generation(dispatcher);
+  }
+
+  @Override
+  public void init() throws ServletException {
+    current.dispatcher.init(getServletConfig());
+  }
+
+  /**
+   * Route new requests to the dispatcher, which must be initialized already.
+   *
+   * @return the previous generation, which should be drained and destroyed.
+   */
+  public Generation swap(BundleDispatcherServlet dispatcher) {
+    Generation previous = current;
+    current = new Generation(dispatcher);
+    return previous;
+  }
+
+  public Generation getCurrent() {
+    return current;
+  }
+
+  @Override
+  public void service(ServletRequest req, ServletResponse res)
+    throws ServletException, IOException {
+    Generation generation;
+    while (true) {
+      generation = current;
+      generation.inFlight.incrementAndGet();
+      if (generation == current) {
+        break;
+      }
+      // Swapped meanwhile, the old generation may be draining already.
+      generation.inFlight.decrementAndGet();
+    }
+    try {
+      generation.dispatcher.service(req, res);
+    } finally {
+      generation.inFlight.decrementAndGet();
+    }
+  }
+
+  @Override
+  public void destroy() {
+    current.dispatcher.destroy();
+  }
+
+  public static final class Generation {
+    private final BundleDispatcherServlet dispatcher;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Generation(BundleDispatcherServlet dispatcher) {
+      this.dispatcher = dispatcher;
+    }
+
+    public BundleDispatcherServlet getDispatcher() {
+      return dispatcher;
+    }
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+  }
+}
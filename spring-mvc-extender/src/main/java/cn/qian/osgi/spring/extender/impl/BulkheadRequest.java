@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * A request handed over to a {@link BundleBulkhead}. The container request is in async mode
+ * already, so async processing started by the application takes over the existing async
+ * context instead of starting a new one.
+ */
+class BulkheadRequest extends HttpServletRequestWrapper {
+  private final AsyncContext asyncContext;
+  private volatile boolean asyncStarted;
+
+  BulkheadRequest(HttpServletRequest request, AsyncContext asyncContext) {
+    super(request);
+    this.asyncContext = asyncContext;
+  }
+
+  @Override
+  public AsyncContext startAsync() {
+    asyncStarted = true;
+    return asyncContext;
+  }
+
+  @Override
+  public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+    return startAsync();
+  }
+
+  @Override
+  public boolean isAsyncStarted() {
+    return asyncStarted;
+  }
+
+  @Override
+  public AsyncContext getAsyncContext() {
+    if (!asyncStarted) {
+      throw new IllegalStateException("Async processing is not started.");
+    }
+    return asyncContext;
+  }
+}
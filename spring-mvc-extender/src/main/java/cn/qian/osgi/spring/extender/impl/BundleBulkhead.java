@@ -0,0 +1,90 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.BulkheadStats;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.osgi.framework.Bundle;
+
+/**
+ * Bounded executor handling the requests of a single bundle, so that a slow bundle could not
+ * exhaust the threads of the container.
+ */
+public class BundleBulkhead {
+  private final Bundle bundle;
+  private final int queueCapacity;
+  private final ThreadPoolExecutor executor;
+  private final LongAdder rejected = new LongAdder();
+
+  public BundleBulkhead(Bundle bundle, int maxThreads, int maxQueue, ClassLoader classLoader) {
+    this.bundle = bundle;
+    this.queueCapacity = maxQueue;
+    BlockingQueue<Runnable> queue =
+      maxQueue > 0 ? new ArrayBlockingQueue<>(maxQueue) : new SynchronousQueue<>();
+    AtomicInteger threadNo = new AtomicInteger();
+    String threadPrefix = BundleBulkhead.class.getPackage().getName() + "-bulkhead-"
+      + bundle.getSymbolicName() + "-";
+    executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, queue, r -> {
+      Thread t = new Thread(r, threadPrefix + threadNo.incrementAndGet());
+      // The dispatcher does not need to switch it then.
+      t.setContextClassLoader(classLoader);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return false if the task was rejected because the queue is full.
+   */
+  public boolean execute(Runnable task) {
+    try {
+      executor.execute(task);
+      return true;
+    } catch (RejectedExecutionException e) {
+      rejected.increment();
+      return false;
+    }
+  }
+
+  /**
+   * @return number of requests running or waiting.
+   */
+  public int getPending() {
+    return executor.getActiveCount() + executor.getQueue().size();
+  }
+
+  /**
+   * Stop taking requests, the accepted ones still run.
+   */
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  public BulkheadStats getStats() {
+    return new BulkheadStats(bundle.getBundleId(), bundle.getSymbolicName(),
+      executor.getMaximumPoolSize(), executor.getActiveCount(), executor.getPoolSize(),
+      executor.getQueue().size(), queueCapacity, executor.getCompletedTaskCount(),
+      rejected.sum());
+  }
+}
@@ -0,0 +1,296 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.HandlerAdapter;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * The dispatcher servlet of a spring mvc bundle. It may be initialized by the extender before
+ * it is published to the whiteboard, the later init call of the container is ignored then.
+ * Requests run with the bundle class loader as thread context class loader unless pax web sets
+ * it already. With a {@link BundleBulkhead}, requests are handed over to it via servlet async.
+ * With a {@link RequestPhaseProfiler}, the phases of the sampled requests are timed. With a
+ * {@link ResponseCache}, cached responses are served before the request reaches the bulkhead.
+ * Resources of the {@link StaticResourceIndex} are served before anything else. With the trie
+ * mapping enabled, handlers are looked up in a {@link TrieHandlerMapping} first.
+ */
+public class BundleDispatcherServlet extends DispatcherServlet {
+  private static final long serialVersionUID = 1L;
+  private static final Logger log = LoggerFactory.getLogger(BundleDispatcherServlet.class);
+  private final transient ClassLoader classLoader;
+  private final transient PaxWebTcclConfiguration tcclConfiguration;
+  private transient volatile BundleBulkhead bulkhead;
+  private transient volatile RequestPhaseProfiler profiler;
+  private transient volatile ResponseCache responseCache;
+  private transient volatile StaticResourceIndex staticResources;
+  private transient volatile TrieHandlerMapping trieMapping;
+  private boolean trieMappingEnabled;
+  private volatile boolean initialized;
+
+  public BundleDispatcherServlet(WebApplicationContext webApplicationContext,
+    ClassLoader classLoader, PaxWebTcclConfiguration tcclConfiguration) {
+    super(webApplicationContext);
+    this.classLoader = classLoader;
+    this.tcclConfiguration = tcclConfiguration;
+  }
+
+  @Override
+  public void init(ServletConfig config) throws ServletException {
+    synchronized (this) {
+      if (initialized) {
+        return;
+      }
+      super.init(config);
+      initialized = true;
+    }
+  }
+
+  public boolean isInitialized() {
+    return initialized;
+  }
+
+  public BundleBulkhead getBulkhead() {
+    return bulkhead;
+  }
+
+  public void setBulkhead(BundleBulkhead bulkhead) {
+    this.bulkhead = bulkhead;
+  }
+
+  public void setResponseCache(ResponseCache responseCache) {
+    this.responseCache = responseCache;
+  }
+
+  public void setStaticResources(StaticResourceIndex staticResources) {
+    this.staticResources = staticResources;
+  }
+
+  /**
+   * Must be set before the servlet is initialized.
+   */
+  public void setTrieMappingEnabled(boolean trieMappingEnabled) {
+    this.trieMappingEnabled = trieMappingEnabled;
+  }
+
+  /**
+   * Must be set before the servlet is initialized.
+   */
+  public void setProfiler(RequestPhaseProfiler profiler) {
+    this.profiler = profiler;
+  }
+
+  @Override
+  protected void initStrategies(ApplicationContext context) {
+    super.initStrategies(context);
+    if (profiler != null) {
+      profiler.instrument(context);
+    }
+    if (trieMappingEnabled) {
+      trieMapping = TrieHandlerMapping.create(getHandlerMappings(), getServletName());
+    }
+  }
+
+  @Override
+  public void destroy() {
+    super.destroy();
+    if (bulkhead != null) {
+      bulkhead.shutdown();
+    }
+    if (staticResources != null) {
+      staticResources.close();
+    }
+  }
+
+  @Override
+  public void service(ServletRequest req, ServletResponse res)
+    throws ServletException, IOException {
+    if (DispatcherWarmup.isWarmup(req)) {
+      serviceWithTccl(req, res);
+      return;
+    }
+    StaticResourceIndex resources = staticResources;
+    if (resources != null && req.getDispatcherType() == DispatcherType.REQUEST
+      && resources.serve((HttpServletRequest) req, (HttpServletResponse) res)) {
+      return;
+    }
+    ServletResponse response = res;
+    ResponseCache cache = responseCache;
+    if (cache != null && req.getDispatcherType() == DispatcherType.REQUEST
+      && cache.isCacheable((HttpServletRequest) req)) {
+      if (cache.serve((HttpServletRequest) req, (HttpServletResponse) res)) {
+        return;
+      }
+      response = new CachingResponseWrapper((HttpServletResponse) res, cache.getMaxEntrySize());
+    }
+    // Async dispatches, forwards and includes stay on the thread of the container.
+    if (bulkhead != null && req.getDispatcherType() == DispatcherType.REQUEST
+      && req.isAsyncSupported()) {
+      AsyncContext asyncContext = req.startAsync();
+      asyncContext.setTimeout(0);
+      BulkheadRequest bulkheadReq = new BulkheadRequest((HttpServletRequest) req, asyncContext);
+      ServletResponse bulkheadRes = response;
+      if (!bulkhead.execute(() -> serviceInBulkhead(bulkheadReq, bulkheadRes, asyncContext))) {
+        ((HttpServletResponse) res).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        asyncContext.complete();
+      }
+      return;
+    }
+    try {
+      serviceWithTccl(req, response);
+    } catch (ServletException | IOException | RuntimeException e) {
+      discardCachedBody(response);
+      throw e;
+    }
+    completeCachedResponse((HttpServletRequest) req, response);
+  }
+
+  /**
+   * Store the response held back for the cache and send it, unless the application continues
+   * asynchronously, then let it write on.
+   */
+  private void completeCachedResponse(HttpServletRequest req, ServletResponse res)
+    throws IOException {
+    if (res instanceof CachingResponseWrapper) {
+      CachingResponseWrapper wrapper = (CachingResponseWrapper) res;
+      if (req.isAsyncStarted()) {
+        wrapper.release();
+      } else {
+        responseCache.complete(req, wrapper);
+      }
+    }
+  }
+
+  private static void discardCachedBody(ServletResponse res) {
+    if (res instanceof CachingResponseWrapper) {
+      ((CachingResponseWrapper) res).discard();
+    }
+  }
+
+  private void serviceInBulkhead(BulkheadRequest req, ServletResponse res,
+    AsyncContext asyncContext) {
+    try {
+      serviceWithTccl(req, res);
+      completeCachedResponse(req, res);
+    } catch (Exception e) {
+      log.error("Failed to handle {}", req.getRequestURI(), e);
+      discardCachedBody(res);
+      if (!res.isCommitted()) {
+        try {
+          ((HttpServletResponse) res).sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } catch (IOException ignored) {
+          // The client is gone.
+        }
+      }
+    } finally {
+      // Async processing of the application completes or dispatches it later.
+      if (!req.isAsyncStarted()) {
+        asyncContext.complete();
+      }
+    }
+  }
+
+  private void serviceWithTccl(ServletRequest req, ServletResponse res)
+    throws ServletException, IOException {
+    Thread thread = Thread.currentThread();
+    ClassLoader tccl = thread.getContextClassLoader();
+    if (tccl == classLoader || !tcclConfiguration.isTcclFixNeeded()) {
+      super.service(req, res);
+      return;
+    }
+    thread.setContextClassLoader(classLoader);
+    try {
+      super.service(req, res);
+    } finally {
+      thread.setContextClassLoader(tccl);
+    }
+  }
+
+  @Override
+  protected void doDispatch(HttpServletRequest request, HttpServletResponse response)
+    throws Exception {
+    RequestPhaseProfiler requestProfiler = profiler;
+    RequestPhaseProfiler.RequestProfile profile = requestProfiler == null
+      || DispatcherWarmup.isWarmup(request) ? null : requestProfiler.begin();
+    if (profile == null) {
+      super.doDispatch(request, response);
+      return;
+    }
+    try {
+      super.doDispatch(request, response);
+    } finally {
+      requestProfiler.end(profile, request, response);
+    }
+  }
+
+  @Override
+  protected HandlerExecutionChain getHandler(HttpServletRequest request) throws Exception {
+    RequestPhaseProfiler.RequestProfile profile = RequestPhaseProfiler.current();
+    if (profile == null) {
+      return findHandler(request);
+    }
+    long start = System.nanoTime();
+    HandlerExecutionChain chain = findHandler(request);
+    profile.addHandlerMapping(System.nanoTime() - start,
+      chain == null ? null : chain.getHandler());
+    return chain;
+  }
+
+  private HandlerExecutionChain findHandler(HttpServletRequest request) throws Exception {
+    TrieHandlerMapping mapping = trieMapping;
+    HandlerExecutionChain chain = mapping == null ? null : mapping.getHandler(request);
+    return chain != null ? chain : super.getHandler(request);
+  }
+
+  @Override
+  protected HandlerAdapter getHandlerAdapter(Object handler) throws ServletException {
+    RequestPhaseProfiler.RequestProfile profile = RequestPhaseProfiler.current();
+    HandlerAdapter adapter = super.getHandlerAdapter(handler);
+    return profile == null ? adapter : profile.timed(adapter);
+  }
+
+  @Override
+  protected void render(ModelAndView mv, HttpServletRequest request,
+    HttpServletResponse response) throws Exception {
+    RequestPhaseProfiler.RequestProfile profile = RequestPhaseProfiler.current();
+    if (profile == null) {
+      super.render(mv, request, response);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      super.render(mv, request, response);
+    } finally {
+      profile.addViewRendering(System.nanoTime() - start);
+    }
+  }
+}
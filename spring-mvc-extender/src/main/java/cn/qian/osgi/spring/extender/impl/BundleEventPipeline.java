@@ -0,0 +1,201 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handles bundle events off the framework event thread. Events arriving for a bundle before the
+ * previous ones were handled are coalesced into one action, e.g. repeated STARTED events of a
+ * bundle refreshed twice. Actions are handled in batches, in the order the bundles first showed
+ * up, so the actions of a bundle are never reordered. STOPPING is the exception: it is handled on
+ * the event thread, while the context and the class loader of the bundle are still valid.
+ */
+public class BundleEventPipeline {
+  private static final Logger log = LoggerFactory.getLogger(BundleEventPipeline.class);
+  private static final long DEFAULT_COALESCE_WINDOW = 100;
+
+  enum Action {
+    SCAN, START, UNINSTALL
+  }
+
+  private final SpringMvcConfigurationManagerImpl springMvcConfigurationManager;
+  private final ServletContextManager servletContextManager;
+  private final long coalesceWindow;
+  private final Object lock = new Object();
+  private final Thread worker;
+  private Map<Long, PendingAction> pending = new LinkedHashMap<>();
+  private volatile boolean running = true;
+
+  public BundleEventPipeline(BundleContext extenderContext,
+    SpringMvcConfigurationManagerImpl springMvcConfigurationManager,
+    ServletContextManager servletContextManager) {
+    this.springMvcConfigurationManager = springMvcConfigurationManager;
+    this.servletContextManager = servletContextManager;
+    long window = DEFAULT_COALESCE_WINDOW;
+    String configured =
+      extenderContext.getProperty(SpringMvcConstants.EVENTS_COALESCE_WINDOW_PROPERTY);
+    if (configured != null) {
+      try {
+        window = Math.max(0, Long.parseLong(configured.trim()));
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", SpringMvcConstants.EVENTS_COALESCE_WINDOW_PROPERTY, configured);
+      }
+    }
+    coalesceWindow = window;
+    worker = new Thread(this::run, BundleEventPipeline.class.getPackage().getName() + "-events");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Queue the event, returns at once, except for STOPPING which is handled before returning.
+   */
+  public void submit(BundleEvent event) {
+    Bundle bnd = event.getBundle();
+    if (event.getType() == BundleEvent.STOPPING) {
+      bundleStopping(bnd);
+      return;
+    }
+    Action action = toAction(event.getType());
+    if (action == null) {
+      return;
+    }
+    synchronized (lock) {
+      PendingAction previous = pending.get(bnd.getBundleId());
+      if (previous == null) {
+        pending.put(bnd.getBundleId(), new PendingAction(bnd, action));
+        lock.notifyAll();
+      } else {
+        previous.action = coalesce(previous.action, action);
+      }
+    }
+  }
+
+  private static Action toAction(int eventType) {
+    switch (eventType) {
+      case BundleEvent.INSTALLED:
+        return Action.SCAN;
+      case BundleEvent.STARTED:
+        return Action.START;
+      case BundleEvent.UNINSTALLED:
+        return Action.UNINSTALL;
+      default:
+        return null;
+    }
+  }
+
+  static Action coalesce(Action previous, Action next) {
+    switch (next) {
+      case SCAN:
+        // Starting scans the bundle as well, stopping makes the scan pointless.
+        return previous;
+      case START:
+        return previous == Action.UNINSTALL ? previous : Action.START;
+      default:
+        return next;
+    }
+  }
+
+  private void bundleStopping(Bundle bnd) {
+    synchronized (lock) {
+      // A start still queued is for the revision going away.
+      PendingAction previous = pending.get(bnd.getBundleId());
+      if (previous != null && previous.action == Action.START) {
+        pending.remove(bnd.getBundleId());
+      }
+    }
+    try {
+      springMvcConfigurationManager.bundleStopping(bnd);
+    } catch (Exception e) {
+      log.error("Failed to handle STOPPING of {}", bnd.getSymbolicName(), e);
+    }
+  }
+
+  private void run() {
+    while (running) {
+      Map<Long, PendingAction> batch;
+      try {
+        synchronized (lock) {
+          while (pending.isEmpty() && running) {
+            lock.wait();
+          }
+        }
+        if (coalesceWindow > 0) {
+          // Let the rest of a burst, e.g. a feature install, arrive.
+          Thread.sleep(coalesceWindow);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      synchronized (lock) {
+        batch = pending;
+        pending = new LinkedHashMap<>();
+      }
+      log.debug("Handling events of {} bundles.", batch.size());
+      batch.values().forEach(this::handle);
+    }
+  }
+
+  private void handle(PendingAction pendingAction) {
+    Bundle bnd = pendingAction.bundle;
+    try {
+      switch (pendingAction.action) {
+        case SCAN:
+          servletContextManager.scanBundleForServletContext(bnd);
+          break;
+        case START:
+          springMvcConfigurationManager.createSpringMvcConfig(bnd);
+          break;
+        case UNINSTALL:
+          springMvcConfigurationManager.destroySpringMvcConfig(bnd);
+          break;
+        default:
+          break;
+      }
+    } catch (Exception e) {
+      log.error("Failed to handle {} of {}", new Object[] {pendingAction.action,
+        bnd.getSymbolicName(), e});
+    }
+  }
+
+  /**
+   * Stop handling events, the pending ones are dropped.
+   */
+  public void shutdown() {
+    running = false;
+    worker.interrupt();
+  }
+
+  private static final class PendingAction {
+    private final Bundle bundle;
+    private Action action;
+
+    private PendingAction(Bundle bundle, Action action) {
+      this.bundle = bundle;
+      this.action = action;
+    }
+  }
+}
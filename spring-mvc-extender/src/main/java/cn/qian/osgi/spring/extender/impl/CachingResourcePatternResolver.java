@@ -0,0 +1,184 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.gemini.blueprint.io.OsgiBundleResourcePatternResolver;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleWiring;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+
+/**
+ * Resource pattern resolver of a bundle wiring, shared by the root and web contexts of the bundle
+ * and by its restarts. Resolved patterns of the bundle space (classpath*:, classpath:,
+ * osgibundle: and osgibundlejar:) are remembered, so each one walks the bundle and its wires only
+ * once; others, e.g. file: or http:, could change meanwhile and are resolved every time. Patterns limited to the bundle jar ("osgibundlejar:") are answered from an
+ * index of the bundle entries, built on first use. It must be replaced once the bundle is updated
+ * or refreshed, see {@link #isCurrent(BundleWiring)}. The {@link MetadataReaderCache} of the
+ * bundle has the same lifetime, so it is kept here as well.
+ */
+public class CachingResourcePatternResolver implements ResourcePatternResolver {
+  private static final Logger log = LoggerFactory.getLogger(CachingResourcePatternResolver.class);
+  private static final String BUNDLE_JAR_PREFIX = "osgibundlejar:";
+  private static final String[] CACHED_PREFIXES =
+    {"classpath*:", "classpath:", "osgibundle:", BUNDLE_JAR_PREFIX};
+  private static final int MAX_PATTERNS = 1000;
+  private final Bundle bundle;
+  private final BundleWiring wiring;
+  private final ResourcePatternResolver delegate;
+  private final PathMatcher pathMatcher = new AntPathMatcher();
+  private final Map<String, Resource[]> resolved = new ConcurrentHashMap<>();
+  private final MetadataReaderCache metadataReaderCache;
+  private volatile NavigableMap<String, URL> entries;
+
+  /**
+   * @param metadataCacheSize capacity of the metadata reader cache, 0 for none.
+   */
+  public CachingResourcePatternResolver(Bundle bundle, BundleWiring wiring,
+    int metadataCacheSize) {
+    this.bundle = bundle;
+    this.wiring = wiring;
+    this.delegate = new OsgiBundleResourcePatternResolver(bundle);
+    this.metadataReaderCache =
+      metadataCacheSize > 0 ? new MetadataReaderCache(metadataCacheSize) : null;
+  }
+
+  public Bundle getBundle() {
+    return bundle;
+  }
+
+  /**
+   * @return null if the cache is disabled.
+   */
+  public MetadataReaderCache getMetadataReaderCache() {
+    return metadataReaderCache;
+  }
+
+  /**
+   * @return false if the bundle was updated or refreshed since the resolver was created.
+   */
+  public boolean isCurrent(BundleWiring current) {
+    return wiring == current && wiring.isCurrent();
+  }
+
+  public int getResolvedPatterns() {
+    return resolved.size();
+  }
+
+  @Override
+  public Resource[] getResources(String locationPattern) throws IOException {
+    if (!isCached(locationPattern)) {
+      return delegate.getResources(locationPattern);
+    }
+    Resource[] resources = resolved.get(locationPattern);
+    if (resources == null) {
+      resources = locationPattern.startsWith(BUNDLE_JAR_PREFIX)
+        ? findEntries(locationPattern.substring(BUNDLE_JAR_PREFIX.length()))
+        : delegate.getResources(locationPattern);
+      if (resolved.size() < MAX_PATTERNS) {
+        resolved.put(locationPattern, resources);
+      }
+    }
+    return resources.clone();
+  }
+
+  private static boolean isCached(String locationPattern) {
+    for (String prefix : CACHED_PREFIXES) {
+      if (locationPattern.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Resource[] findEntries(String pattern) {
+    String path = pattern.startsWith("/") ? pattern : "/" + pattern;
+    NavigableMap<String, URL> index = getEntries();
+    String root = path;
+    int wildcard = indexOfWildcard(path);
+    if (wildcard >= 0) {
+      root = path.substring(0, path.lastIndexOf('/', wildcard) + 1);
+    }
+    List<Resource> resources = new ArrayList<>();
+    // Entries are sorted, so those under the root folder are contiguous.
+    for (Map.Entry<String, URL> entry : index.tailMap(root, true).entrySet()) {
+      if (!entry.getKey().startsWith(root)) {
+        break;
+      }
+      if (pathMatcher.match(path, entry.getKey())) {
+        resources.add(new UrlResource(entry.getValue()));
+      }
+    }
+    return resources.toArray(new Resource[0]);
+  }
+
+  private static int indexOfWildcard(String path) {
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c == '*' || c == '?' || c == '{') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private NavigableMap<String, URL> getEntries() {
+    NavigableMap<String, URL> index = entries;
+    if (index == null) {
+      synchronized (this) {
+        index = entries;
+        if (index == null) {
+          long start = System.currentTimeMillis();
+          index = new TreeMap<>();
+          Enumeration<URL> urls = bundle.findEntries("/", "*", true);
+          while (urls != null && urls.hasMoreElements()) {
+            URL url = urls.nextElement();
+            index.putIfAbsent(url.getPath(), url);
+          }
+          entries = index;
+          log.debug("Indexed {} entries of {} in {} ms.", new Object[] {index.size(),
+            bundle.getSymbolicName(), System.currentTimeMillis() - start});
+        }
+      }
+    }
+    return index;
+  }
+
+  @Override
+  public Resource getResource(String location) {
+    return delegate.getResource(location);
+  }
+
+  @Override
+  public ClassLoader getClassLoader() {
+    return delegate.getClassLoader();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Holds back the body of a response, so the {@link ResponseCache} could store it and answer
+ * with 304 instead. Once the body grows over the limit, or the response is released, the
+ * body goes straight to the wrapped response.
+ */
+class CachingResponseWrapper extends HttpServletResponseWrapper {
+  private final int limit;
+  private ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+  private ServletOutputStream outputStream;
+  private PrintWriter writer;
+
+  CachingResponseWrapper(HttpServletResponse response, int limit) {
+    super(response);
+    this.limit = limit;
+  }
+
+  /**
+   * @return the body held back, or null if it was passed on already.
+   */
+  synchronized byte[] getBody() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    return buffer == null ? null : buffer.toByteArray();
+  }
+
+  /**
+   * Pass the body held back, and everything written later, to the wrapped response.
+   */
+  synchronized void release() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (buffer != null) {
+      byte[] body = buffer.toByteArray();
+      buffer = null;
+      if (body.length > 0) {
+        getResponse().getOutputStream().write(body);
+      }
+    }
+  }
+
+  /**
+   * Drop the body held back, the caller answers the request itself.
+   */
+  synchronized void discard() {
+    buffer = null;
+  }
+
+  private synchronized void write(byte[] b, int off, int len) throws IOException {
+    if (buffer != null && buffer.size() + len > limit) {
+      release();
+    }
+    if (buffer != null) {
+      buffer.write(b, off, len);
+    } else {
+      getResponse().getOutputStream().write(b, off, len);
+    }
+  }
+
+  private synchronized boolean isBuffering() {
+    return buffer != null;
+  }
+
+  @Override
+  public ServletOutputStream getOutputStream() throws IOException {
+    if (writer != null) {
+      throw new IllegalStateException("getWriter() has already been called");
+    }
+    if (outputStream == null) {
+      outputStream = new BufferingOutputStream();
+    }
+    return outputStream;
+  }
+
+  @Override
+  public PrintWriter getWriter() throws IOException {
+    if (outputStream != null) {
+      throw new IllegalStateException("getOutputStream() has already been called");
+    }
+    if (writer == null) {
+      writer = new PrintWriter(
+        new OutputStreamWriter(new BufferingOutputStream(), getCharacterEncoding()));
+    }
+    return writer;
+  }
+
+  @Override
+  public void flushBuffer() throws IOException {
+    if (writer != null) {
+      writer.flush();
+    }
+    if (!isBuffering()) {
+      super.flushBuffer();
+    }
+  }
+
+  @Override
+  public void resetBuffer() {
+    synchronized (this) {
+      if (buffer != null) {
+        buffer.reset();
+      }
+    }
+    super.resetBuffer();
+  }
+
+  @Override
+  public void reset() {
+    synchronized (this) {
+      if (buffer != null) {
+        buffer.reset();
+      }
+    }
+    super.reset();
+  }
+
+  private final class BufferingOutputStream extends ServletOutputStream {
+    @Override
+    public void write(int b) throws IOException {
+      CachingResponseWrapper.this.write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      CachingResponseWrapper.this.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (!isBuffering()) {
+        getResponse().getOutputStream().flush();
+      }
+    }
+  }
+}
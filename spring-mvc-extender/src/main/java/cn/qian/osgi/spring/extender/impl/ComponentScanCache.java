@@ -0,0 +1,218 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.ScanCacheEntry;
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the component scan results of spring mvc bundles in the data area of the extender
+ * bundle, keyed by bundle id. An entry is only valid for the bundle version and last-modified stamp
+ * it was recorded for. Entries are written to a temporary file first and moved in place, so a
+ * crash never leaves a truncated entry behind.
+ */
+public class ComponentScanCache {
+  private static final Logger log = LoggerFactory.getLogger(ComponentScanCache.class);
+  private static final String SYMBOLIC_NAME = "bundle.symbolicName";
+  private static final String VERSION = "bundle.version";
+  private static final String LAST_MODIFIED = "bundle.lastModified";
+  /**
+   * Entries of earlier formats held the scanned bean classes only, not all matched classes.
+   */
+  private static final String FORMAT = "format";
+  private static final String CURRENT_FORMAT = "2";
+  private static final String PATTERN = "pattern.";
+  private static final String CLASSES = "classes.";
+  private final File cacheDir;
+  private final Map<Long, Object> locks = new ConcurrentHashMap<>();
+
+  public ComponentScanCache(BundleContext extenderContext) {
+    File dir = null;
+    if (!"false".equalsIgnoreCase(
+      extenderContext.getProperty(SpringMvcConstants.SCAN_CACHE_PROPERTY))) {
+      dir = extenderContext.getDataFile("component-scan-cache");
+    }
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      log.warn("Failed to create {}, component scan cache is disabled.", dir);
+      dir = null;
+    }
+    cacheDir = dir;
+  }
+
+  public boolean isEnabled() {
+    return cacheDir != null;
+  }
+
+  private File getCacheFile(long bndId) {
+    return new File(cacheDir, bndId + ".properties");
+  }
+
+  private Object getLock(long bndId) {
+    return locks.computeIfAbsent(bndId, id -> new Object());
+  }
+
+  /**
+   * @return class resource paths by scan pattern, or null if nothing valid is cached.
+   */
+  public Map<String, List<String>> load(Bundle bnd) {
+    if (!isEnabled()) {
+      return null;
+    }
+    File file = getCacheFile(bnd.getBundleId());
+    if (!file.isFile()) {
+      return null;
+    }
+    Properties props = read(file);
+    if (props == null
+      || !String.valueOf(bnd.getLastModified()).equals(props.getProperty(LAST_MODIFIED))
+      || !String.valueOf(bnd.getVersion()).equals(props.getProperty(VERSION))
+      || !CURRENT_FORMAT.equals(props.getProperty(FORMAT))) {
+      log.info("Component scan cache of {} is outdated.", bnd.getSymbolicName());
+      invalidate(bnd.getBundleId());
+      return null;
+    }
+    Map<String, List<String>> patterns = new HashMap<>();
+    for (int i = 0; props.containsKey(PATTERN + i); i++) {
+      String classes = props.getProperty(CLASSES + i, "");
+      patterns.put(props.getProperty(PATTERN + i), classes.isEmpty()
+        ? Collections.emptyList() : Arrays.asList(classes.split(",")));
+    }
+    return patterns;
+  }
+
+  public void store(Bundle bnd, Map<String, List<String>> patterns) {
+    if (!isEnabled()) {
+      return;
+    }
+    Properties props = new Properties();
+    props.setProperty(FORMAT, CURRENT_FORMAT);
+    props.setProperty(SYMBOLIC_NAME, bnd.getSymbolicName());
+    props.setProperty(VERSION, String.valueOf(bnd.getVersion()));
+    props.setProperty(LAST_MODIFIED, String.valueOf(bnd.getLastModified()));
+    int i = 0;
+    for (Map.Entry<String, List<String>> e : patterns.entrySet()) {
+      props.setProperty(PATTERN + i, e.getKey());
+      props.setProperty(CLASSES + i, String.join(",", e.getValue()));
+      i++;
+    }
+    File file = getCacheFile(bnd.getBundleId());
+    synchronized (getLock(bnd.getBundleId())) {
+      File tmp = null;
+      try {
+        tmp = File.createTempFile(bnd.getBundleId() + ".", ".tmp", cacheDir);
+        try (OutputStream out = new FileOutputStream(tmp)) {
+          props.store(out, "Component scan cache of " + bnd.getSymbolicName());
+        }
+        move(tmp, file);
+        log.info("Component scan result of {} is cached.", bnd.getSymbolicName());
+      } catch (IOException e) {
+        log.warn("Failed to write {}", file, e);
+        if (tmp != null && tmp.exists() && !tmp.delete()) {
+          log.warn("Failed to delete {}", tmp);
+        }
+      }
+    }
+  }
+
+  private static void move(File source, File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  public void invalidate(long bndId) {
+    if (isEnabled()) {
+      File file = getCacheFile(bndId);
+      synchronized (getLock(bndId)) {
+        if (file.exists() && !file.delete()) {
+          log.warn("Failed to delete {}", file);
+        }
+      }
+    }
+  }
+
+  public void purge() {
+    listCacheFiles().forEach(f -> {
+      if (!f.delete()) {
+        log.warn("Failed to delete {}", f);
+      }
+    });
+  }
+
+  public Collection<ScanCacheEntry> list() {
+    List<ScanCacheEntry> entries = new ArrayList<>();
+    listCacheFiles().forEach(f -> {
+      Properties props = read(f);
+      if (props != null) {
+        int patterns = 0;
+        int classes = 0;
+        for (; props.containsKey(PATTERN + patterns); patterns++) {
+          String cls = props.getProperty(CLASSES + patterns, "");
+          classes += cls.isEmpty() ? 0 : cls.split(",").length;
+        }
+        String name = f.getName();
+        entries.add(new ScanCacheEntry(
+          Long.parseLong(name.substring(0, name.length() - ".properties".length())),
+          props.getProperty(SYMBOLIC_NAME), props.getProperty(VERSION),
+          Long.parseLong(props.getProperty(LAST_MODIFIED, "0")), patterns, classes, f.length()));
+      }
+    });
+    return entries;
+  }
+
+  private List<File> listCacheFiles() {
+    File[] files = isEnabled()
+      ? cacheDir.listFiles((d, n) -> n.matches("\\d+\\.properties")) : null;
+    return files == null ? Collections.emptyList() : Arrays.asList(files);
+  }
+
+  private static Properties read(File file) {
+    Properties props = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      props.load(in);
+      return props;
+    } catch (IOException | IllegalArgumentException e) {
+      log.warn("Failed to read {}", file, e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.Servlet;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceRegistration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+
+/**
+ * Everything the extender created for a spring mvc bundle.
+ */
+public class DispatcherEntry {
+  public enum State {
+    STARTING, ACTIVE,
+    /**
+     * The bundle is stopping for an update, the dispatcher keeps serving until its replacement is
+     * swapped in.
+     */
+    STANDBY,
+    REPLACING, STOPPING
+  }
+
+  private final Bundle bundle;
+  private final AtomicReference<State> state = new AtomicReference<>(State.STARTING);
+  private volatile GenericWebApplicationContext springContext;
+  private volatile ConfigurableApplicationContext springRootContext;
+  private volatile String sharedRootContextName;
+  private volatile BundleDispatcherServlet dispatcher;
+  private volatile ServiceRegistration<Servlet> registration;
+  private volatile SpringMvcBundleDescriptor descriptor;
+  private volatile ClassLoader classLoader;
+  private volatile BlueGreenServlet front;
+  private volatile RequestStatsRecorder statsRecorder;
+  private volatile StartupTimeline startupTimeline;
+
+  public DispatcherEntry(Bundle bundle) {
+    this.bundle = bundle;
+  }
+
+  public Bundle getBundle() {
+    return bundle;
+  }
+
+  public State getState() {
+    return state.get();
+  }
+
+  /**
+   * @return true if the dispatcher is taking requests.
+   */
+  public boolean isServing() {
+    State current = state.get();
+    return current == State.ACTIVE || current == State.STANDBY || current == State.REPLACING;
+  }
+
+  public boolean compareAndSetState(State expect, State update) {
+    return state.compareAndSet(expect, update);
+  }
+
+  /**
+   * @return the previous state
+   */
+  public State stop() {
+    return state.getAndSet(State.STOPPING);
+  }
+
+  public GenericWebApplicationContext getSpringContext() {
+    return springContext;
+  }
+
+  public void setSpringContext(GenericWebApplicationContext springContext) {
+    this.springContext = springContext;
+  }
+
+  public ConfigurableApplicationContext getSpringRootContext() {
+    return springRootContext;
+  }
+
+  public void setSpringRootContext(ConfigurableApplicationContext springRootContext) {
+    this.springRootContext = springRootContext;
+  }
+
+  /**
+   * @return null if the root context is private to the bundle.
+   */
+  public String getSharedRootContextName() {
+    return sharedRootContextName;
+  }
+
+  public void setSharedRootContextName(String sharedRootContextName) {
+    this.sharedRootContextName = sharedRootContextName;
+  }
+
+  public BundleDispatcherServlet getDispatcher() {
+    return dispatcher;
+  }
+
+  public void setDispatcher(BundleDispatcherServlet dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  public ServiceRegistration<Servlet> getRegistration() {
+    return registration;
+  }
+
+  public void setRegistration(ServiceRegistration<Servlet> registration) {
+    this.registration = registration;
+  }
+
+  /**
+   * @return the descriptor the contexts were built from.
+   */
+  public SpringMvcBundleDescriptor getDescriptor() {
+    return descriptor;
+  }
+
+  public void setDescriptor(SpringMvcBundleDescriptor descriptor) {
+    this.descriptor = descriptor;
+  }
+
+  public ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  public void setClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * @return null if the dispatcher is not published for blue/green updates.
+   */
+  public BlueGreenServlet getFront() {
+    return front;
+  }
+
+  public void setFront(BlueGreenServlet front) {
+    this.front = front;
+  }
+
+  /**
+   * @return null if the request statistics are disabled.
+   */
+  public RequestStatsRecorder getStatsRecorder() {
+    return statsRecorder;
+  }
+
+  public void setStatsRecorder(RequestStatsRecorder statsRecorder) {
+    this.statsRecorder = statsRecorder;
+  }
+
+  public StartupTimeline getStartupTimeline() {
+    return startupTimeline;
+  }
+
+  public void setStartupTimeline(StartupTimeline startupTimeline) {
+    this.startupTimeline = startupTimeline;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.osgi.framework.Bundle;
+
+/**
+ * Dispatchers created by the extender, keyed by bundle id.
+ */
+public class DispatcherRegistry {
+  private final Map<Long, DispatcherEntry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Reserve the slot of the bundle.
+   *
+   * @return the new entry in {@link DispatcherEntry.State#STARTING} state, or null if the bundle
+   *   already has one.
+   */
+  public DispatcherEntry reserve(Bundle bnd) {
+    DispatcherEntry entry = new DispatcherEntry(bnd);
+    return entries.putIfAbsent(bnd.getBundleId(), entry) == null ? entry : null;
+  }
+
+  public DispatcherEntry get(long bndId) {
+    return entries.get(bndId);
+  }
+
+  /**
+   * @return the entry of the bundle if it is serving requests, otherwise null.
+   */
+  public DispatcherEntry getActive(long bndId) {
+    DispatcherEntry entry = entries.get(bndId);
+    return entry != null && entry.isServing() ? entry : null;
+  }
+
+  public DispatcherEntry remove(long bndId) {
+    return entries.remove(bndId);
+  }
+
+  /**
+   * Remove the entry only if it is still the registered one.
+   */
+  public boolean remove(DispatcherEntry entry) {
+    return entries.remove(entry.getBundle().getBundleId(), entry);
+  }
+
+  /**
+   * Replace the entry of a bundle only if it is still the registered one.
+   */
+  public boolean replace(DispatcherEntry previous, DispatcherEntry next) {
+    return entries.replace(previous.getBundle().getBundleId(), previous, next);
+  }
+
+  public Collection<DispatcherEntry> entries() {
+    return Collections.unmodifiableCollection(entries.values());
+  }
+}
@@ -0,0 +1,333 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.DispatcherServlet;
+
+/**
+ * Executes GET requests in-process against a dispatcher, before it takes real traffic. Warm-up
+ * requests are not cached, profiled or counted in the request statistics.
+ */
+public class DispatcherWarmup {
+  private static final Logger log = LoggerFactory.getLogger(DispatcherWarmup.class);
+  private static final String WARMUP_ATTRIBUTE = DispatcherWarmup.class.getName() + ".WARMUP";
+
+  private DispatcherWarmup() {
+  }
+
+  public static boolean isWarmup(ServletRequest request) {
+    return request.getAttribute(WARMUP_ATTRIBUTE) != null;
+  }
+
+  /**
+   * @param contextPath the servlet context path, "/" for the default context
+   * @param urlPattern  the url pattern of the dispatcher, e.g. "/mvc1/*"
+   * @param paths       paths relative to the url pattern
+   */
+  public static void warmUp(DispatcherServlet dispatcher, ClassLoader classLoader,
+    String contextPath, String urlPattern, Iterable<String> paths) {
+    String servletPath = urlPattern.endsWith("/*")
+      ? urlPattern.substring(0, urlPattern.length() - 2) : "";
+    String ctxPath = "/".equals(contextPath) ? "" : contextPath;
+    Thread thread = Thread.currentThread();
+    ClassLoader tccl = thread.getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      for (String path : paths) {
+        long start = System.currentTimeMillis();
+        WarmupRequest request = new WarmupRequest(
+          dispatcher.getServletContext(), ctxPath, servletPath, path);
+        WarmupResponse response = new WarmupResponse();
+        try {
+          dispatcher.service(request, response);
+          log.info("Warm-up GET {} answered {} in {} ms.", new Object[] {request.getRequestURI(),
+            response.getStatus(), System.currentTimeMillis() - start});
+        } catch (Exception e) {
+          log.warn("Warm-up GET {} failed", request.getRequestURI(), e);
+        }
+      }
+    } finally {
+      thread.setContextClassLoader(tccl);
+    }
+  }
+
+  private static <T> T defaults(Class<T> type) {
+    return type.cast(Proxy.newProxyInstance(DispatcherWarmup.class.getClassLoader(),
+      new Class<?>[] {type}, (proxy, method, args) -> {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == boolean.class) {
+          return false;
+        } else if (returnType == int.class) {
+          return 0;
+        } else if (returnType == long.class) {
+          return -1L;
+        } else if (returnType == Enumeration.class) {
+          return Collections.emptyEnumeration();
+        } else if (returnType == Map.class) {
+          return Collections.emptyMap();
+        }
+        return null;
+      }));
+  }
+
+  static class WarmupRequest extends HttpServletRequestWrapper {
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final ServletContext servletContext;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String queryString;
+
+    WarmupRequest(ServletContext servletContext, String contextPath, String servletPath,
+      String path) {
+      super(defaults(HttpServletRequest.class));
+      this.servletContext = servletContext;
+      this.contextPath = contextPath;
+      this.servletPath = servletPath;
+      int q = path.indexOf('?');
+      String p = q < 0 ? path : path.substring(0, q);
+      this.pathInfo = p.startsWith("/") ? p : "/" + p;
+      this.queryString = q < 0 ? null : path.substring(q + 1);
+      attributes.put(WARMUP_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    @Override
+    public String getMethod() {
+      return "GET";
+    }
+
+    @Override
+    public String getContextPath() {
+      return contextPath;
+    }
+
+    @Override
+    public String getServletPath() {
+      return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+      return pathInfo;
+    }
+
+    @Override
+    public String getRequestURI() {
+      return contextPath + servletPath + pathInfo;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+      return new StringBuffer("http://localhost").append(getRequestURI());
+    }
+
+    @Override
+    public String getQueryString() {
+      return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+      String[] values = getParameterMap().get(name);
+      return values == null ? null : values[0];
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+      return getParameterMap().get(name);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+      return Collections.enumeration(getParameterMap().keySet());
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+      Map<String, String[]> params = new HashMap<>();
+      if (queryString != null) {
+        for (String pair : queryString.split("&")) {
+          int eq = pair.indexOf('=');
+          params.put(eq < 0 ? pair : pair.substring(0, eq),
+            new String[] {eq < 0 ? "" : pair.substring(eq + 1)});
+        }
+      }
+      return params;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+      return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public void setAttribute(String name, Object o) {
+      if (o == null) {
+        attributes.remove(name);
+      } else {
+        attributes.put(name, o);
+      }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+      attributes.remove(name);
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+      return servletContext;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+      return DispatcherType.REQUEST;
+    }
+
+    @Override
+    public Locale getLocale() {
+      return Locale.getDefault();
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+      return Collections.enumeration(Collections.singletonList(Locale.getDefault()));
+    }
+
+    @Override
+    public String getScheme() {
+      return "http";
+    }
+
+    @Override
+    public String getProtocol() {
+      return "HTTP/1.1";
+    }
+
+    @Override
+    public String getServerName() {
+      return "localhost";
+    }
+
+    @Override
+    public int getServerPort() {
+      return 80;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+      return "127.0.0.1";
+    }
+  }
+
+  static class WarmupResponse extends HttpServletResponseWrapper {
+    private final ServletOutputStream out = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    };
+    private int status = SC_OK;
+    private String contentType;
+    private String characterEncoding = StandardCharsets.ISO_8859_1.name();
+
+    WarmupResponse() {
+      super(defaults(HttpServletResponse.class));
+    }
+
+    @Override
+    public void setStatus(int sc) {
+      status = sc;
+    }
+
+    @Override
+    public int getStatus() {
+      return status;
+    }
+
+    @Override
+    public void sendError(int sc) {
+      status = sc;
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+      status = sc;
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+      status = SC_FOUND;
+    }
+
+    @Override
+    public void setContentType(String type) {
+      contentType = type;
+    }
+
+    @Override
+    public String getContentType() {
+      return contentType;
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+      characterEncoding = charset;
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+      return characterEncoding;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      return new PrintWriter(new OutputStreamWriter(StreamUtils.nonClosing(out),
+        characterEncoding));
+    }
+  }
+}
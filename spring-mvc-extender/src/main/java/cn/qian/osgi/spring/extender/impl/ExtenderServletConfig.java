@@ -0,0 +1,55 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * ServletConfig for servlets initialized by the extender itself.
+ */
+public class ExtenderServletConfig implements ServletConfig {
+  private final String servletName;
+  private final ServletContext servletContext;
+
+  public ExtenderServletConfig(String servletName, ServletContext servletContext) {
+    this.servletName = servletName;
+    this.servletContext = servletContext;
+  }
+
+  @Override
+  public String getServletName() {
+    return servletName;
+  }
+
+  @Override
+  public ServletContext getServletContext() {
+    return servletContext;
+  }
+
+  @Override
+  public String getInitParameter(String name) {
+    return null;
+  }
+
+  @Override
+  public Enumeration<String> getInitParameterNames() {
+    return Collections.emptyEnumeration();
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.ServletContext;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Rough footprint measurements of spring contexts, using reflection only.
+ */
+public class FootprintEstimator {
+  private static final Logger log = LoggerFactory.getLogger(FootprintEstimator.class);
+  private static final int MAX_OBJECTS = 2_000_000;
+  // Compressed oops layout of a 64 bit JVM.
+  private static final int OBJECT_HEADER = 12;
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+  private static final Class<?>[] OPAQUE_TYPES = {Class.class, ClassLoader.class, Thread.class,
+    ThreadGroup.class, ApplicationContext.class, BeanFactory.class, Bundle.class,
+    BundleContext.class, ServletContext.class};
+  private static final Field classesField = findClassesField();
+
+  private FootprintEstimator() {
+  }
+
+  private static Field findClassesField() {
+    try {
+      Field f = ClassLoader.class.getDeclaredField("classes");
+      f.setAccessible(true);
+      return f;
+    } catch (Exception e) {
+      // E.g. java.lang is not opened to the extender on JDK 16+.
+      log.info("Loaded classes are reported as unavailable, ClassLoader.classes is not accessible"
+        + " (--add-opens java.base/java.lang=ALL-UNNAMED): {}", e.toString());
+      return null;
+    }
+  }
+
+  /**
+   * @return number of classes defined by the class loader, -1 if the JVM denies access to them.
+   */
+  public static int countLoadedClasses(ClassLoader classLoader) {
+    if (classesField == null || classLoader == null) {
+      return -1;
+    }
+    try {
+      Collection<?> classes = (Collection<?>) classesField.get(classLoader);
+      synchronized (classes) {
+        return classes.size();
+      }
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * @return number of live threads whose context class loader is the class loader.
+   */
+  public static int countThreads(ClassLoader classLoader) {
+    ThreadGroup root = Thread.currentThread().getThreadGroup();
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    Thread[] threads = new Thread[root.activeCount() * 2 + 16];
+    int n = root.enumerate(threads, true);
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (threads[i].getContextClassLoader() == classLoader) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Approximate the bytes reachable from the roots. Class loaders, threads, contexts, bundles
+   * and servlet contexts are not followed, objects shared with other contexts are counted.
+   * The class layouts are only kept during the call, not to pin the classes of other bundles.
+   */
+  public static long estimateRetainedHeap(Collection<?> roots) {
+    Map<Class<?>, ClassLayout> layouts = new HashMap<>();
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Object> pending = new ArrayDeque<>(roots);
+    long size = 0;
+    while (!pending.isEmpty() && visited.size() < MAX_OBJECTS) {
+      Object o = pending.pop();
+      if (o == null || isOpaque(o.getClass()) || !visited.add(o)) {
+        continue;
+      }
+      Class<?> type = o.getClass();
+      if (type.isArray()) {
+        Class<?> component = type.getComponentType();
+        int length = Array.getLength(o);
+        size += align(ARRAY_HEADER + (long) length * sizeOf(component));
+        if (!component.isPrimitive()) {
+          for (Object e : (Object[]) o) {
+            if (e != null) {
+              pending.push(e);
+            }
+          }
+        }
+        continue;
+      }
+      ClassLayout layout = layouts.computeIfAbsent(type, ClassLayout::new);
+      size += layout.size;
+      for (Field f : layout.references) {
+        try {
+          Object value = f.get(o);
+          if (value != null) {
+            pending.push(value);
+          }
+        } catch (IllegalAccessException e) {
+          // Not accessible, counted shallow only.
+        }
+      }
+    }
+    if (visited.size() >= MAX_OBJECTS) {
+      log.info("Heap estimation stopped after {} objects.", MAX_OBJECTS);
+    }
+    return size;
+  }
+
+  private static boolean isOpaque(Class<?> type) {
+    for (Class<?> opaque : OPAQUE_TYPES) {
+      if (opaque.isAssignableFrom(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int sizeOf(Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    } else if (type == int.class || type == float.class) {
+      return 4;
+    } else if (type == short.class || type == char.class) {
+      return 2;
+    } else if (type == byte.class || type == boolean.class) {
+      return 1;
+    }
+    return REFERENCE;
+  }
+
+  private static long align(long size) {
+    return (size + 7) & ~7L;
+  }
+
+  private static final class ClassLayout {
+    private final long size;
+    private final List<Field> references = new ArrayList<>();
+
+    private ClassLayout(Class<?> type) {
+      long fields = 0;
+      for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+        for (Field f : c.getDeclaredFields()) {
+          if (Modifier.isStatic(f.getModifiers())) {
+            continue;
+          }
+          fields += sizeOf(f.getType());
+          if (!f.getType().isPrimitive()) {
+            try {
+              f.setAccessible(true);
+              references.add(f);
+            } catch (RuntimeException e) {
+              // Encapsulated by the module system.
+            }
+          }
+        }
+      }
+      size = align(OBJECT_HEADER + fields);
+    }
+  }
+}
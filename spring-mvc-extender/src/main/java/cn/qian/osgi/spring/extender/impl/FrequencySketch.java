@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+/**
+ * Count-min sketch of 4-bit counters estimating how often keys were seen recently. All counters
+ * are halved once the sample size is reached, so old popularity fades. Not thread safe.
+ */
+final class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final int MAX_COUNT = 15;
+  private static final int[] SEEDS = {0x97cb3127, 0x6b3f0a7d, 0x1b873593, 0x7feb352d};
+  private final byte[] counters;
+  private final int mask;
+  private final int sampleSize;
+  private int additions;
+
+  FrequencySketch(int expectedEntries) {
+    int width = Integer.highestOneBit(Math.max(16, expectedEntries) - 1) << 1;
+    counters = new byte[DEPTH * width];
+    mask = width - 1;
+    sampleSize = 10 * width;
+  }
+
+  int frequency(int hash) {
+    int frequency = MAX_COUNT;
+    for (int row = 0; row < DEPTH; row++) {
+      frequency = Math.min(frequency, counters[indexOf(hash, row)]);
+    }
+    return frequency;
+  }
+
+  void increment(int hash) {
+    boolean added = false;
+    for (int row = 0; row < DEPTH; row++) {
+      int index = indexOf(hash, row);
+      if (counters[index] < MAX_COUNT) {
+        counters[index]++;
+        added = true;
+      }
+    }
+    if (added && ++additions >= sampleSize) {
+      for (int i = 0; i < counters.length; i++) {
+        counters[i] >>>= 1;
+      }
+      additions >>>= 1;
+    }
+  }
+
+  private int indexOf(int hash, int row) {
+    int h = hash * SEEDS[row];
+    h ^= h >>> 17;
+    return row * (mask + 1) + (h & mask);
+  }
+}
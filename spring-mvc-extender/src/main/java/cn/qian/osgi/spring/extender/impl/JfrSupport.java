@@ -0,0 +1,41 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+/**
+ * Tells whether the JFR events of the extender could be used. The event classes are only touched
+ * when it is, so the extender runs without jdk.jfr as well.
+ */
+public final class JfrSupport {
+  private static final boolean AVAILABLE = detect();
+
+  private JfrSupport() {
+  }
+
+  private static boolean detect() {
+    try {
+      Class.forName("jdk.jfr.Event", false, JfrSupport.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+}
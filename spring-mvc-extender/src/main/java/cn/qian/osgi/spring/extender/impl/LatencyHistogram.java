@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear latency histogram. Every power of 2 is split into 8 buckets, so a
+ * reported value is at most 12.5% above the recorded one. Counts are striped by thread to
+ * keep the cores from fighting over the same cache lines, recording allocates nothing.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 39;
+  private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+  static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+  private static final int STRIPES = stripes();
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+  private final LongAdder errors = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  private static int stripes() {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    return Math.min(8, Integer.highestOneBit(Math.max(1, cpus - 1)) << 1);
+  }
+
+  public void record(long value, boolean error) {
+    if (value < 0) {
+      value = 0;
+    }
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    counts.incrementAndGet(stripe * BUCKETS + bucketOf(value));
+    max.accumulate(value);
+    if (error) {
+      errors.increment();
+    }
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    value = Math.min(value, MAX_VALUE);
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return the highest value counted in the bucket.
+   */
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Add the counts of all stripes to the buckets.
+   */
+  public void addTo(long[] buckets) {
+    for (int i = 0; i < counts.length(); i++) {
+      buckets[i % BUCKETS] += counts.get(i);
+    }
+  }
+
+  /**
+   * @return the value below which the quantile of the counted values fall.
+   */
+  static long valueAtQuantile(long[] buckets, double quantile) {
+    long total = 0;
+    for (long c : buckets) {
+      total += c;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return highestValueOf(i);
+      }
+    }
+    return highestValueOf(buckets.length - 1);
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Not atomic, requests completing meanwhile may be partially counted.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) {
+      counts.set(i, 0);
+    }
+    errors.reset();
+    max.reset();
+  }
+}
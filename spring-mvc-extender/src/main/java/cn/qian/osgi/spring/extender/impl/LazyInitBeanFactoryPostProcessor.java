@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.function.BooleanSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.core.Ordered;
+
+/**
+ * Marks the bean definitions of a context lazy, unless they set lazy-init explicitly, are
+ * infrastructure beans or need the callback after the eager singletons are created.
+ */
+public class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor, Ordered {
+  private static final Logger log = LoggerFactory.getLogger(LazyInitBeanFactoryPostProcessor.class);
+  /**
+   * Bean definition attribute marking the beans made lazy by this post processor.
+   */
+  private static final String MADE_LAZY_ATTRIBUTE =
+    LazyInitBeanFactoryPostProcessor.class.getName() + ".madeLazy";
+
+  @Override
+  public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+    throws BeansException {
+    for (String name : beanFactory.getBeanDefinitionNames()) {
+      BeanDefinition definition = beanFactory.getBeanDefinition(name);
+      if (definition instanceof AbstractBeanDefinition
+        && ((AbstractBeanDefinition) definition).getLazyInit() == null
+        && definition.getRole() != BeanDefinition.ROLE_INFRASTRUCTURE
+        && !isSmartInitializingSingleton(beanFactory, name)) {
+        definition.setLazyInit(true);
+        definition.setAttribute(MADE_LAZY_ATTRIBUTE, Boolean.TRUE);
+      }
+    }
+  }
+
+  private static boolean isSmartInitializingSingleton(ConfigurableListableBeanFactory beanFactory,
+    String name) {
+    Class<?> type = beanFactory.getType(name, false);
+    return type != null && SmartInitializingSingleton.class.isAssignableFrom(type);
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.LOWEST_PRECEDENCE;
+  }
+
+  /**
+   * Create the singletons made lazy by the post processor and not created yet. Beans declared
+   * lazy by the application are left alone.
+   *
+   * @param stopped checked before each bean, pre-instantiation stops once it returns true.
+   * @return number of beans created.
+   */
+  public static int preInstantiateSingletons(ConfigurableListableBeanFactory beanFactory,
+    BooleanSupplier stopped) {
+    int created = 0;
+    for (String name : beanFactory.getBeanDefinitionNames()) {
+      if (stopped.getAsBoolean()) {
+        break;
+      }
+      BeanDefinition definition = beanFactory.getBeanDefinition(name);
+      if (!definition.isSingleton() || definition.isAbstract() || !definition.isLazyInit()
+        || definition.getAttribute(MADE_LAZY_ATTRIBUTE) == null
+        || beanFactory.containsSingleton(name)) {
+        continue;
+      }
+      try {
+        beanFactory.getBean(name);
+        created++;
+      } catch (RuntimeException e) {
+        // Left to the request which needs it.
+        log.warn("Failed to pre-instantiate bean {}: {}", name, e.getMessage());
+      }
+    }
+    return created;
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.core.io.Resource;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
+
+/**
+ * Bounded, least recently used cache of the parsed class files of a bundle wiring. The contexts of
+ * the bundle hand it out as their {@code getResourceCache(MetadataReader.class)}, which the
+ * {@link CachingMetadataReaderFactory} of the configuration class parser and of the component
+ * scanners use, so a class read by one context or start is not parsed again by the next. Classes
+ * of imported bundles are cached as well, as they are resolved through the bundle.
+ */
+public class MetadataReaderCache extends AbstractMap<Resource, MetadataReader> {
+  private final int capacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final LinkedHashMap<Resource, MetadataReader> readers;
+
+  public MetadataReaderCache(int capacity) {
+    this.capacity = capacity;
+    this.readers = new LinkedHashMap<Resource, MetadataReader>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Resource, MetadataReader> eldest) {
+        return size() > MetadataReaderCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * @return this cache if the value type is {@link MetadataReader}, null otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Map<Resource, T> asResourceCache(Class<T> valueType) {
+    return valueType == MetadataReader.class ? (Map<Resource, T>) this : null;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public MetadataReader get(Object key) {
+    MetadataReader reader;
+    synchronized (readers) {
+      reader = readers.get(key);
+    }
+    (reader == null ? misses : hits).incrementAndGet();
+    return reader;
+  }
+
+  @Override
+  public MetadataReader put(Resource key, MetadataReader value) {
+    synchronized (readers) {
+      return readers.put(key, value);
+    }
+  }
+
+  @Override
+  public MetadataReader remove(Object key) {
+    synchronized (readers) {
+      return readers.remove(key);
+    }
+  }
+
+  @Override
+  public int size() {
+    synchronized (readers) {
+      return readers.size();
+    }
+  }
+
+  @Override
+  public void clear() {
+    synchronized (readers) {
+      readers.clear();
+    }
+  }
+
+  /**
+   * @return a snapshot of the entries.
+   */
+  @Override
+  public Set<Entry<Resource, MetadataReader>> entrySet() {
+    synchronized (readers) {
+      Set<Entry<Resource, MetadataReader>> entries = new HashSet<>();
+      readers.forEach((k, v) -> entries.add(new SimpleImmutableEntry<>(k, v)));
+      return entries;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.util.Dictionary;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
+import org.osgi.util.tracker.ServiceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks whether pax web sets the thread context class loader of whiteboard servlets itself
+ * (org.ops4j.pax.web.tccl.type = whiteboard). The configuration is read whenever a configuration
+ * admin service arrives, then updated by configuration events.
+ */
+public class PaxWebTcclConfiguration implements ConfigurationListener {
+  private static final Logger log = LoggerFactory.getLogger(PaxWebTcclConfiguration.class);
+  private static final String PAX_WEB_PID = "org.ops4j.pax.web";
+  private static final String TCCL_TYPE = "org.ops4j.pax.web.tccl.type";
+  private final BundleContext extenderContext;
+  private volatile boolean tcclFixNeeded = true;
+  private ServiceRegistration<ConfigurationListener> registration;
+  private ServiceTracker<ConfigurationAdmin, ConfigurationAdmin> configurationAdminTracker;
+
+  public PaxWebTcclConfiguration(BundleContext extenderContext) {
+    this.extenderContext = extenderContext;
+  }
+
+  public void open() {
+    registration = extenderContext.registerService(ConfigurationListener.class, this, null);
+    // Configuration admin may be registered after the extender.
+    configurationAdminTracker = new ServiceTracker<ConfigurationAdmin, ConfigurationAdmin>(
+      extenderContext, ConfigurationAdmin.class, null) {
+      @Override
+      public ConfigurationAdmin addingService(ServiceReference<ConfigurationAdmin> reference) {
+        ConfigurationAdmin cm = super.addingService(reference);
+        if (cm != null) {
+          update(cm);
+        }
+        return cm;
+      }
+    };
+    configurationAdminTracker.open();
+  }
+
+  public void close() {
+    if (configurationAdminTracker != null) {
+      configurationAdminTracker.close();
+      configurationAdminTracker = null;
+    }
+    if (registration != null) {
+      try {
+        registration.unregister();
+      } catch (IllegalStateException e) {
+        log.debug("Configuration listener was already unregistered.");
+      }
+      registration = null;
+    }
+  }
+
+  /**
+   * @return true if the dispatchers have to set the thread context class loader themselves.
+   */
+  public boolean isTcclFixNeeded() {
+    return tcclFixNeeded;
+  }
+
+  @Override
+  public void configurationEvent(ConfigurationEvent event) {
+    if (PAX_WEB_PID.equals(event.getPid())) {
+      update(event.getReference());
+    }
+  }
+
+  private void update(ServiceReference<ConfigurationAdmin> sr) {
+    ConfigurationAdmin cm = extenderContext.getService(sr);
+    if (cm != null) {
+      try {
+        update(cm);
+      } finally {
+        extenderContext.ungetService(sr);
+      }
+    }
+  }
+
+  private void update(ConfigurationAdmin cm) {
+    boolean need = true;
+    try {
+      // Listing does not create the configuration, unlike getConfiguration.
+      Configuration[] confs =
+        cm.listConfigurations(String.format("(service.pid=%s)", PAX_WEB_PID));
+      Dictionary<String, Object> props = confs == null ? null : confs[0].getProperties();
+      need = props == null || !"whiteboard".equals(props.get(TCCL_TYPE));
+    } catch (IOException | InvalidSyntaxException e) {
+      log.warn("Failed to read {} configuration.", PAX_WEB_PID, e);
+    }
+    if (need != tcclFixNeeded) {
+      log.info("Dispatchers {} set the thread context class loader.", need ? "will" : "won't");
+    }
+    tcclFixNeeded = need;
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.method.support.AsyncHandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.HandlerAdapter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Records where the time of a request goes inside a {@link BundleDispatcherServlet}: handler
+ * mapping, argument resolution (including reading the request body), handler invocation,
+ * return value handling (including writing the response body) and view rendering. Only a
+ * fraction of the requests is sampled, the others are only timed as a whole to catch the slow
+ * ones. Both are emitted as JFR events; without JFR the slow requests are logged.
+ */
+public class RequestPhaseProfiler {
+  private static final Logger log = LoggerFactory.getLogger(RequestPhaseProfiler.class);
+  private static final ThreadLocal<RequestProfile> current = new ThreadLocal<>();
+  private final Bundle bundle;
+  private final double sampleRate;
+  private final long slowThresholdNanos;
+
+  /**
+   * @param sampleRate fraction of the requests to record the phases of.
+   * @param slowThreshold milliseconds, requests taking longer are captured, 0 to disable it.
+   */
+  public RequestPhaseProfiler(Bundle bundle, double sampleRate, long slowThreshold) {
+    this.bundle = bundle;
+    this.sampleRate = sampleRate;
+    this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+  }
+
+  /**
+   * @return the profile of the request being dispatched by the current thread, if it is sampled.
+   */
+  static RequestProfile current() {
+    return current.get();
+  }
+
+  /**
+   * @return null if the request is neither sampled nor timed.
+   */
+  RequestProfile begin() {
+    boolean sampled = sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    if (!sampled && slowThresholdNanos <= 0) {
+      return null;
+    }
+    RequestProfile profile = new RequestProfile(sampled, current.get());
+    if (sampled) {
+      current.set(profile);
+    }
+    return profile;
+  }
+
+  void end(RequestProfile profile, HttpServletRequest request, HttpServletResponse response) {
+    profile.totalTime = System.nanoTime() - profile.startNanos;
+    if (profile.sampled) {
+      // Forwards and includes nest in the profile of the outer dispatch.
+      if (profile.outer == null) {
+        current.remove();
+      } else {
+        current.set(profile.outer);
+      }
+    }
+    boolean slow = slowThresholdNanos > 0 && profile.totalTime >= slowThresholdNanos;
+    if (!profile.sampled && !slow) {
+      return;
+    }
+    profile.method = request.getMethod();
+    profile.uri = request.getRequestURI();
+    profile.dispatcherType = request.getDispatcherType().name();
+    profile.status = response.getStatus();
+    if (profile.handler == null) {
+      // Not timed by the handler mapping phase, the request mapping leaves it here.
+      profile.handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+    }
+    if (JfrSupport.isAvailable()) {
+      if (profile.sampled) {
+        RequestProfileEvent.commit(false, bundle.getSymbolicName(), profile);
+      }
+      if (slow) {
+        RequestProfileEvent.commit(true, bundle.getSymbolicName(), profile);
+      }
+    } else if (slow) {
+      log.warn("Slow request {} {} of {} took {} ms on {}, handler {}, {}.", new Object[] {
+        profile.method, profile.uri, bundle.getSymbolicName(),
+        TimeUnit.NANOSECONDS.toMillis(profile.totalTime), Thread.currentThread().getName(),
+        profile.getHandlerName(),
+        profile.sampled ? profile.describePhases() : "not sampled"});
+    }
+  }
+
+  /**
+   * Wrap the argument resolvers and return value handlers of the request mapping handler
+   * adapters of the context. It is idempotent.
+   */
+  void instrument(ApplicationContext context) {
+    for (RequestMappingHandlerAdapter adapter
+      : context.getBeansOfType(RequestMappingHandlerAdapter.class).values()) {
+      List<HandlerMethodArgumentResolver> resolvers = adapter.getArgumentResolvers();
+      if (resolvers != null) {
+        adapter.setArgumentResolvers(resolvers.stream()
+          .map(r -> r instanceof TimedArgumentResolver ? r : new TimedArgumentResolver(r))
+          .collect(Collectors.toList()));
+      }
+      List<HandlerMethodReturnValueHandler> handlers = adapter.getReturnValueHandlers();
+      if (handlers != null) {
+        adapter.setReturnValueHandlers(handlers.stream()
+          .map(h -> h instanceof TimedReturnValueHandler ? h : new TimedReturnValueHandler(h))
+          .collect(Collectors.toList()));
+      }
+    }
+  }
+
+  /**
+   * Phase timings of a request, in nanoseconds.
+   */
+  static final class RequestProfile {
+    private final boolean sampled;
+    private final RequestProfile outer;
+    private final long startNanos = System.nanoTime();
+    private long totalTime;
+    private long handlerMapping;
+    private long argumentResolution;
+    private long handlerAdapter;
+    private long messageConversion;
+    private long viewRendering;
+    private Object handler;
+    private String method;
+    private String uri;
+    private String dispatcherType;
+    private int status;
+
+    private RequestProfile(boolean sampled, RequestProfile outer) {
+      this.sampled = sampled;
+      this.outer = outer;
+    }
+
+    void addHandlerMapping(long nanos, Object handler) {
+      handlerMapping += nanos;
+      this.handler = handler;
+    }
+
+    void addViewRendering(long nanos) {
+      viewRendering += nanos;
+    }
+
+    HandlerAdapter timed(HandlerAdapter adapter) {
+      return new TimedHandlerAdapter(adapter, this);
+    }
+
+    boolean isSampled() {
+      return sampled;
+    }
+
+    String getMethod() {
+      return method;
+    }
+
+    String getUri() {
+      return uri;
+    }
+
+    String getDispatcherType() {
+      return dispatcherType;
+    }
+
+    int getStatus() {
+      return status;
+    }
+
+    String getHandlerName() {
+      if (handler instanceof HandlerMethod) {
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        return handlerMethod.getBeanType().getSimpleName() + "#"
+          + handlerMethod.getMethod().getName();
+      }
+      return handler == null ? null : handler.getClass().getSimpleName();
+    }
+
+    long getTotalTime() {
+      return totalTime;
+    }
+
+    long getHandlerMapping() {
+      return handlerMapping;
+    }
+
+    long getArgumentResolution() {
+      return argumentResolution;
+    }
+
+    /**
+     * @return time of the handler adapter, without resolving the arguments and handling the
+     *   return value.
+     */
+    long getHandlerInvocation() {
+      return Math.max(0, handlerAdapter - argumentResolution - messageConversion);
+    }
+
+    long getMessageConversion() {
+      return messageConversion;
+    }
+
+    long getViewRendering() {
+      return viewRendering;
+    }
+
+    private String describePhases() {
+      return String.format("mapping %dus, arguments %dus, handler %dus, conversion %dus, "
+          + "view %dus", toMicros(handlerMapping), toMicros(argumentResolution),
+        toMicros(getHandlerInvocation()), toMicros(messageConversion), toMicros(viewRendering));
+    }
+
+    private static long toMicros(long nanos) {
+      return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+  }
+
+  private static final class TimedHandlerAdapter implements HandlerAdapter {
+    private final HandlerAdapter delegate;
+    private final RequestProfile profile;
+
+    private TimedHandlerAdapter(HandlerAdapter delegate, RequestProfile profile) {
+      this.delegate = delegate;
+      this.profile = profile;
+    }
+
+    @Override
+    public boolean supports(Object handler) {
+      return delegate.supports(handler);
+    }
+
+    @Override
+    public ModelAndView handle(HttpServletRequest request, HttpServletResponse response,
+      Object handler) throws Exception {
+      long start = System.nanoTime();
+      try {
+        return delegate.handle(request, response, handler);
+      } finally {
+        profile.handlerAdapter += System.nanoTime() - start;
+      }
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public long getLastModified(HttpServletRequest request, Object handler) {
+      return delegate.getLastModified(request, handler);
+    }
+  }
+
+  private static final class TimedArgumentResolver implements HandlerMethodArgumentResolver {
+    private final HandlerMethodArgumentResolver delegate;
+
+    private TimedArgumentResolver(HandlerMethodArgumentResolver delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+      return delegate.supportsParameter(parameter);
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+      NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws Exception {
+      RequestProfile profile = current.get();
+      if (profile == null) {
+        return delegate.resolveArgument(parameter, mavContainer, webRequest, binderFactory);
+      }
+      long start = System.nanoTime();
+      try {
+        return delegate.resolveArgument(parameter, mavContainer, webRequest, binderFactory);
+      } finally {
+        profile.argumentResolution += System.nanoTime() - start;
+      }
+    }
+  }
+
+  private static final class TimedReturnValueHandler
+    implements AsyncHandlerMethodReturnValueHandler {
+    private final HandlerMethodReturnValueHandler delegate;
+
+    private TimedReturnValueHandler(HandlerMethodReturnValueHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public boolean supportsReturnType(MethodParameter returnType) {
+      return delegate.supportsReturnType(returnType);
+    }
+
+    @Override
+    public boolean isAsyncReturnValue(Object returnValue, MethodParameter returnType) {
+      return delegate instanceof AsyncHandlerMethodReturnValueHandler
+        && ((AsyncHandlerMethodReturnValueHandler) delegate)
+        .isAsyncReturnValue(returnValue, returnType);
+    }
+
+    @Override
+    public void handleReturnValue(Object returnValue, MethodParameter returnType,
+      ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+      RequestProfile profile = current.get();
+      if (profile == null) {
+        delegate.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        delegate.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+      } finally {
+        profile.messageConversion += System.nanoTime() - start;
+      }
+    }
+  }
+}
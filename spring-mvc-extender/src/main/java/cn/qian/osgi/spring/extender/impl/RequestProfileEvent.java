@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Phases of a request handled by a {@link BundleDispatcherServlet}. The phases are only
+ * recorded for sampled requests.
+ */
+@Category({"Spring Mvc Extender", "Requests"})
+@StackTrace(false)
+abstract class RequestProfileEvent extends Event {
+  @Label("Bundle")
+  String bundle;
+  @Label("Method")
+  String method;
+  @Label("URI")
+  String uri;
+  @Label("Dispatcher Type")
+  String dispatcherType;
+  @Label("Handler")
+  String handler;
+  @Label("Status")
+  int status;
+  @Label("Total Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long totalTime;
+  @Label("Sampled")
+  boolean sampled;
+  @Label("Handler Mapping")
+  @Timespan(Timespan.NANOSECONDS)
+  long handlerMapping;
+  @Label("Argument Resolution")
+  @Timespan(Timespan.NANOSECONDS)
+  long argumentResolution;
+  @Label("Handler Invocation")
+  @Timespan(Timespan.NANOSECONDS)
+  long handlerInvocation;
+  @Label("Message Conversion")
+  @Timespan(Timespan.NANOSECONDS)
+  long messageConversion;
+  @Label("View Rendering")
+  @Timespan(Timespan.NANOSECONDS)
+  long viewRendering;
+
+  static void commit(boolean slow, String bundle, RequestPhaseProfiler.RequestProfile profile) {
+    RequestProfileEvent event = slow ? new SlowRequestEvent() : new SampledRequestEvent();
+    if (!event.isEnabled()) {
+      return;
+    }
+    event.bundle = bundle;
+    event.method = profile.getMethod();
+    event.uri = profile.getUri();
+    event.dispatcherType = profile.getDispatcherType();
+    event.handler = profile.getHandlerName();
+    event.status = profile.getStatus();
+    event.totalTime = profile.getTotalTime();
+    event.sampled = profile.isSampled();
+    event.handlerMapping = profile.getHandlerMapping();
+    event.argumentResolution = profile.getArgumentResolution();
+    event.handlerInvocation = profile.getHandlerInvocation();
+    event.messageConversion = profile.getMessageConversion();
+    event.viewRendering = profile.getViewRendering();
+    event.commit();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.RequestStats;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.osgi.framework.Bundle;
+import org.springframework.core.Ordered;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Records the latency of the handlers of a spring context, injected into the context as a
+ * {@link WebMvcConfigurer}. Async requests are timed per dispatch.
+ */
+public class RequestStatsRecorder implements WebMvcConfigurer, AsyncHandlerInterceptor {
+  public static final String BEAN_NAME = "requestStatsRecorder";
+  private static final ThreadLocal<long[]> startTime = ThreadLocal.withInitial(() -> new long[1]);
+  private final Map<Object, HandlerHistogram> histograms = new ConcurrentHashMap<>();
+  private volatile long startedAt = System.nanoTime();
+
+  @Override
+  public void addInterceptors(InterceptorRegistry registry) {
+    registry.addInterceptor(this).order(Ordered.HIGHEST_PRECEDENCE);
+  }
+
+  @Override
+  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
+    Object handler) {
+    startTime.get()[0] = System.nanoTime();
+    return true;
+  }
+
+  @Override
+  public void afterCompletion(HttpServletRequest request, HttpServletResponse response,
+    Object handler, Exception ex) {
+    if (DispatcherWarmup.isWarmup(request)) {
+      return;
+    }
+    long elapsed = System.nanoTime() - startTime.get()[0];
+    // Handler methods are created once per mapping, their methods are stable keys.
+    Object key = handler instanceof HandlerMethod ? ((HandlerMethod) handler).getMethod()
+      : handler.getClass();
+    HandlerHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histogram = histograms.computeIfAbsent(key, k -> new HandlerHistogram(nameOf(k)));
+    }
+    histogram.histogram.record(TimeUnit.NANOSECONDS.toMicros(elapsed),
+      ex != null || response.getStatus() >= 500);
+  }
+
+  private static String nameOf(Object key) {
+    if (key instanceof Method) {
+      Method m = (Method) key;
+      return m.getDeclaringClass().getSimpleName() + "#" + m.getName();
+    }
+    return ((Class<?>) key).getSimpleName();
+  }
+
+  /**
+   * @return statistics of each handler requested since the recorder was created or reset.
+   */
+  public List<RequestStats> getHandlerStats(Bundle bnd) {
+    return histograms.values().stream()
+      .map(h -> toRequestStats(bnd, h.name, Collections.singleton(h.histogram)))
+      .sorted(Comparator.comparing(RequestStats::getHandler))
+      .collect(Collectors.toList());
+  }
+
+  public RequestStats getBundleStats(Bundle bnd) {
+    return toRequestStats(bnd, null,
+      histograms.values().stream().map(h -> h.histogram).collect(Collectors.toList()));
+  }
+
+  private RequestStats toRequestStats(Bundle bnd, String handler,
+    Collection<LatencyHistogram> merged) {
+    long[] buckets = new long[LatencyHistogram.BUCKETS];
+    long errors = 0;
+    long max = 0;
+    for (LatencyHistogram h : merged) {
+      h.addTo(buckets);
+      errors += h.getErrors();
+      max = Math.max(max, h.getMax());
+    }
+    long count = Arrays.stream(buckets).sum();
+    double seconds = (System.nanoTime() - startedAt) / 1e9;
+    return new RequestStats(bnd.getBundleId(), bnd.getSymbolicName(), handler, count, errors,
+      seconds > 0 ? count / seconds : 0,
+      LatencyHistogram.valueAtQuantile(buckets, 0.5),
+      LatencyHistogram.valueAtQuantile(buckets, 0.99),
+      LatencyHistogram.valueAtQuantile(buckets, 0.999), max);
+  }
+
+  public void reset() {
+    histograms.values().forEach(h -> h.histogram.reset());
+    startedAt = System.nanoTime();
+  }
+
+  private static final class HandlerHistogram {
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private HandlerHistogram(String name) {
+      this.name = name;
+    }
+  }
+}
@@ -0,0 +1,458 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.CacheableResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Caches the GET responses of a dispatcher within a memory budget. Responses are cached if
+ * their Cache-Control (s-maxage, or max-age with public) or the {@link CacheableResponse} of
+ * their handler allows it, keyed by path, query and the request headers named by Vary. Requests
+ * with credentials (Authorization, cookies or a session) bypass the cache, hits are served before
+ * the interceptors of the application could check them. Strong ETags are added
+ * to the responses held back, so If-None-Match is answered with 304.
+ *
+ * <p>Eviction follows W-TinyLFU: new entries enter a small LRU window, entries leaving it only
+ * make it into the main segmented LRU if they were requested more often, according to a
+ * frequency sketch, than the entry they would evict.
+ */
+public class ResponseCache {
+  private static final int ENTRY_OVERHEAD = 256;
+  private static final int AVERAGE_ENTRY_SIZE = 4096;
+  private static final long NO_TTL = -1;
+  private static final int MAX_VARY_PATHS = 10000;
+  private final long maxWeight;
+  private final long windowMaxWeight;
+  private final long protectedMaxWeight;
+  private final int maxEntrySize;
+  private final Map<String, CachedResponse> entries = new ConcurrentHashMap<>();
+  /**
+   * Request headers named by the Vary header of the responses of each path, only paths whose
+   * responses vary are kept.
+   */
+  private final Map<String, List<String>> varyHeaders = new ConcurrentHashMap<>();
+  private final Map<Method, Long> handlerTtls = new ConcurrentHashMap<>();
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final LinkedHashMap<String, CachedResponse> window = new LinkedHashMap<>();
+  private final LinkedHashMap<String, CachedResponse> probation = new LinkedHashMap<>();
+  private final LinkedHashMap<String, CachedResponse> protectedSegment = new LinkedHashMap<>();
+  private final FrequencySketch sketch;
+  private long windowWeight;
+  private long probationWeight;
+  private long protectedWeight;
+
+  public ResponseCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+    windowMaxWeight = Math.max(1, maxWeight / 100);
+    protectedMaxWeight = (maxWeight - windowMaxWeight) * 4 / 5;
+    maxEntrySize = (int) Math.min(Integer.MAX_VALUE, maxWeight / 8);
+    sketch = new FrequencySketch((int) Math.min(1 << 20, maxWeight / AVERAGE_ENTRY_SIZE));
+  }
+
+  /**
+   * @return bytes of a size like 1048576, 1024k or 16m, -1 if it is invalid.
+   */
+  public static long parseSize(String size) {
+    String value = size.trim().toLowerCase(Locale.ROOT);
+    long unit = 1;
+    if (value.endsWith("k")) {
+      unit = 1024;
+    } else if (value.endsWith("m")) {
+      unit = 1024 * 1024;
+    } else if (value.endsWith("g")) {
+      unit = 1024 * 1024 * 1024;
+    }
+    if (unit > 1) {
+      value = value.substring(0, value.length() - 1).trim();
+    }
+    try {
+      long bytes = Long.parseLong(value) * unit;
+      return bytes < 0 ? -1 : bytes;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  public int getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+  /**
+   * @return true if the request could be answered from the cache, or its response be cached.
+   */
+  public boolean isCacheable(HttpServletRequest request) {
+    String method = request.getMethod();
+    return ("GET".equals(method) || "HEAD".equals(method))
+      && request.getHeader("Authorization") == null && request.getHeader("Cookie") == null
+      && request.getRequestedSessionId() == null && request.getSession(false) == null;
+  }
+
+  /**
+   * Answer the request from the cache.
+   *
+   * @return false if there is no fresh response for it.
+   */
+  public boolean serve(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+    String cacheControl = request.getHeader("Cache-Control");
+    if (hasDirective(cacheControl, "no-cache") || hasDirective(cacheControl, "no-store")
+      || "no-cache".equals(request.getHeader("Pragma"))) {
+      return false;
+    }
+    String key = keyOf(primaryKeyOf(request), varyHeaders.get(request.getRequestURI()), request);
+    CachedResponse cached = entries.get(key);
+    if (cached == null) {
+      return false;
+    }
+    long now = System.nanoTime();
+    if (now - cached.expiresAt >= 0) {
+      invalidate(cached);
+      return false;
+    }
+    recordHit(cached);
+    response.setStatus(HttpServletResponse.SC_OK);
+    for (String[] header : cached.headers) {
+      response.addHeader(header[0], header[1]);
+    }
+    response.setHeader("Age",
+      String.valueOf(TimeUnit.NANOSECONDS.toSeconds(now - cached.storedAt)));
+    if (matches(request.getHeader("If-None-Match"), cached.etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    response.setContentLength(cached.body.length);
+    if (!"HEAD".equals(request.getMethod())) {
+      response.getOutputStream().write(cached.body);
+    }
+    return true;
+  }
+
+  /**
+   * Cache the response held back by the wrapper if it is allowed to, then send it, or 304 if
+   * the client has it already.
+   */
+  public void complete(HttpServletRequest request, CachingResponseWrapper response)
+    throws IOException {
+    byte[] body = response.getBody();
+    if (body == null || response.getStatus() != HttpServletResponse.SC_OK
+      || !"GET".equals(request.getMethod())) {
+      response.release();
+      return;
+    }
+    String etag = response.getHeader("ETag");
+    if (etag == null) {
+      etag = "\"0" + DigestUtils.md5DigestAsHex(body) + "\"";
+      response.setHeader("ETag", etag);
+    }
+    long ttl = ttlOf(request, response);
+    String vary = response.getHeader("Vary");
+    if (ttl > 0 && body.length <= maxEntrySize && !"*".equals(vary != null ? vary.trim() : null)
+      && !response.containsHeader("Set-Cookie")) {
+      store(request, response, body, etag, ttl, vary);
+    }
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.discard();
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    response.setContentLength(body.length);
+    response.release();
+  }
+
+  /**
+   * @return milliseconds the response may be cached, 0 if it may not.
+   */
+  private long ttlOf(HttpServletRequest request, HttpServletResponse response) {
+    String cacheControl = response.getHeader("Cache-Control");
+    if (cacheControl != null) {
+      if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "no-cache")
+        || hasDirective(cacheControl, "private")) {
+        return 0;
+      }
+      long maxAge = directiveValue(cacheControl, "s-maxage");
+      // A plain max-age is meant for the browser of the user, not for a shared cache.
+      if (maxAge == NO_TTL && hasDirective(cacheControl, "public")) {
+        maxAge = directiveValue(cacheControl, "max-age");
+      }
+      if (maxAge != NO_TTL) {
+        return TimeUnit.SECONDS.toMillis(maxAge);
+      }
+    }
+    Object handler = request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+    if (handler instanceof HandlerMethod) {
+      HandlerMethod handlerMethod = (HandlerMethod) handler;
+      return handlerTtls.computeIfAbsent(handlerMethod.getMethod(), m -> {
+        CacheableResponse cacheable =
+          AnnotatedElementUtils.findMergedAnnotation(m, CacheableResponse.class);
+        if (cacheable == null) {
+          cacheable = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(),
+            CacheableResponse.class);
+        }
+        return cacheable == null ? 0 : TimeUnit.SECONDS.toMillis(cacheable.ttl());
+      });
+    }
+    return 0;
+  }
+
+  private static boolean hasDirective(String cacheControl, String directive) {
+    return cacheControl != null && directiveOf(cacheControl, directive) != null;
+  }
+
+  private static long directiveValue(String cacheControl, String directive) {
+    String value = directiveOf(cacheControl, directive);
+    if (value == null) {
+      return NO_TTL;
+    }
+    int eq = value.indexOf('=');
+    try {
+      return eq < 0 ? NO_TTL : Long.parseLong(value.substring(eq + 1).trim().replace("\"", ""));
+    } catch (NumberFormatException e) {
+      return NO_TTL;
+    }
+  }
+
+  private static String directiveOf(String cacheControl, String directive) {
+    for (String token : StringUtils.tokenizeToStringArray(cacheControl, ",")) {
+      String name = token.split("=", 2)[0].trim();
+      if (name.equalsIgnoreCase(directive)) {
+        return token;
+      }
+    }
+    return null;
+  }
+
+  static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : StringUtils.tokenizeToStringArray(ifNoneMatch, ",")) {
+      // Weak comparison, as for GET.
+      if ("*".equals(tag) || stripWeak(tag).equals(stripWeak(etag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String stripWeak(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+
+  private static String primaryKeyOf(HttpServletRequest request) {
+    String query = request.getQueryString();
+    return query == null ? request.getRequestURI() : request.getRequestURI() + '?' + query;
+  }
+
+  private static String keyOf(String primaryKey, List<String> vary, HttpServletRequest request) {
+    if (vary == null || vary.isEmpty()) {
+      return primaryKey;
+    }
+    StringBuilder key = new StringBuilder(primaryKey);
+    for (String header : vary) {
+      key.append('\n').append(header).append(':');
+      String value = request.getHeader(header);
+      if (value != null) {
+        key.append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  private void store(HttpServletRequest request, HttpServletResponse response, byte[] body,
+    String etag, long ttl, String vary) {
+    String primaryKey = primaryKeyOf(request);
+    List<String> varyNames = vary == null ? Collections.emptyList()
+      : Collections.unmodifiableList(
+        new ArrayList<>(StringUtils.commaDelimitedListToSet(vary.toLowerCase(Locale.ROOT))));
+    if (varyNames.isEmpty()) {
+      varyHeaders.remove(request.getRequestURI());
+    } else {
+      if (varyHeaders.size() >= MAX_VARY_PATHS) {
+        // Bounded, the responses of the forgotten paths are missed until they are stored again.
+        varyHeaders.clear();
+      }
+      varyHeaders.put(request.getRequestURI(), varyNames);
+    }
+    List<String[]> headers = new ArrayList<>();
+    int headerSize = 0;
+    for (String name : response.getHeaderNames()) {
+      if ("Date".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)) {
+        continue;
+      }
+      for (String value : response.getHeaders(name)) {
+        headers.add(new String[] {name, value});
+        headerSize += 2 * (name.length() + value.length());
+      }
+    }
+    String key = keyOf(primaryKey, varyNames, request);
+    long now = System.nanoTime();
+    CachedResponse cached = new CachedResponse(key, headers, body, etag, now,
+      now + TimeUnit.MILLISECONDS.toNanos(ttl),
+      ENTRY_OVERHEAD + 2L * key.length() + headerSize + body.length);
+    evictionLock.lock();
+    try {
+      CachedResponse previous = entries.put(key, cached);
+      if (previous != null) {
+        removeFromSegment(previous);
+      }
+      sketch.increment(key.hashCode());
+      window.put(key, cached);
+      cached.segment = window;
+      windowWeight += cached.weight;
+      while (windowWeight > windowMaxWeight && !window.isEmpty()) {
+        admit(removeEldest(window));
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Move the entry leaving the window into probation, unless the main segments are full and
+   * it is requested less often than the entries it would evict.
+   */
+  private void admit(CachedResponse candidate) {
+    long mainMaxWeight = maxWeight - windowMaxWeight;
+    int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+    while (probationWeight + protectedWeight + candidate.weight > mainMaxWeight) {
+      LinkedHashMap<String, CachedResponse> victims =
+        probation.isEmpty() ? protectedSegment : probation;
+      if (victims.isEmpty()) {
+        break;
+      }
+      CachedResponse victim = victims.values().iterator().next();
+      if (sketch.frequency(victim.key.hashCode()) >= candidateFrequency) {
+        entries.remove(candidate.key, candidate);
+        return;
+      }
+      removeFromSegment(victim);
+      entries.remove(victim.key, victim);
+    }
+    probation.put(candidate.key, candidate);
+    candidate.segment = probation;
+    probationWeight += candidate.weight;
+  }
+
+  private void recordHit(CachedResponse cached) {
+    // Lossy, a hit which could not get the lock is not worth waiting for.
+    if (!evictionLock.tryLock()) {
+      return;
+    }
+    try {
+      sketch.increment(cached.key.hashCode());
+      LinkedHashMap<String, CachedResponse> segment = cached.segment;
+      if (segment == null || segment.get(cached.key) != cached) {
+        return;
+      }
+      if (segment == probation) {
+        probation.remove(cached.key);
+        probationWeight -= cached.weight;
+        protectedSegment.put(cached.key, cached);
+        cached.segment = protectedSegment;
+        protectedWeight += cached.weight;
+        while (protectedWeight > protectedMaxWeight) {
+          CachedResponse demoted = removeEldest(protectedSegment);
+          probation.put(demoted.key, demoted);
+          demoted.segment = probation;
+          probationWeight += demoted.weight;
+        }
+      } else {
+        segment.remove(cached.key);
+        segment.put(cached.key, cached);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void invalidate(CachedResponse cached) {
+    evictionLock.lock();
+    try {
+      if (entries.remove(cached.key, cached)) {
+        removeFromSegment(cached);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private CachedResponse removeEldest(LinkedHashMap<String, CachedResponse> segment) {
+    Iterator<CachedResponse> it = segment.values().iterator();
+    CachedResponse eldest = it.next();
+    removeFromSegment(eldest);
+    return eldest;
+  }
+
+  private void removeFromSegment(CachedResponse cached) {
+    LinkedHashMap<String, CachedResponse> segment = cached.segment;
+    if (segment == null || !segment.remove(cached.key, cached)) {
+      return;
+    }
+    if (segment == window) {
+      windowWeight -= cached.weight;
+    } else if (segment == probation) {
+      probationWeight -= cached.weight;
+    } else {
+      protectedWeight -= cached.weight;
+    }
+    cached.segment = null;
+  }
+
+  private static final class CachedResponse {
+    private final String key;
+    private final List<String[]> headers;
+    private final byte[] body;
+    private final String etag;
+    private final long storedAt;
+    private final long expiresAt;
+    private final long weight;
+    /**
+     * Guarded by the eviction lock.
+     */
+    private LinkedHashMap<String, CachedResponse> segment;
+
+    private CachedResponse(String key, List<String[]> headers, byte[] body, String etag,
+      long storedAt, long expiresAt, long weight) {
+      this.key = key;
+      this.headers = headers;
+      this.body = body;
+      this.etag = etag;
+      this.storedAt = storedAt;
+      this.expiresAt = expiresAt;
+      this.weight = weight;
+    }
+  }
+}
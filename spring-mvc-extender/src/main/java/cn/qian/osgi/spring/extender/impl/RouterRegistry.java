@@ -0,0 +1,152 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import javax.servlet.Servlet;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_SELECT;
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED;
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME;
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN;
+
+/**
+ * The {@link RouterServlet}s of the servlet contexts, one per top-level segment of the routed url
+ * patterns, so that the paths no bundle is routed are left to the other servlets of the context.
+ * A router is registered to the whiteboard by the extender with the first servlet routed through
+ * it and unregistered with the last one.
+ */
+public class RouterRegistry {
+  private static final Logger log = LoggerFactory.getLogger(RouterRegistry.class);
+  private final BundleContext extender;
+  private final Map<String, RouterServlet> routers = new HashMap<>();
+  private final Map<String, ServiceRegistration<Servlet>> registrations = new HashMap<>();
+
+  public RouterRegistry(BundleContext extender) {
+    this.extender = extender;
+  }
+
+  /**
+   * Route the url pattern of the servlet context to the servlet, which must be initialized
+   * already. It is destroyed when the returned registration is unregistered.
+   *
+   * @throws IllegalArgumentException if the url pattern is not a path prefix pattern.
+   * @throws IllegalStateException if the url pattern is routed to another servlet already.
+   */
+  public synchronized ServiceRegistration<Servlet> register(String contextPath,
+    String urlPattern, String name, Servlet servlet) {
+    RouterServlet.Route route = new RouterServlet.Route(urlPattern, name, servlet);
+    String topLevel = RouterServlet.toTopLevelPrefix(urlPattern);
+    String routerName = getRouterName(contextPath, topLevel);
+    RouterServlet router = routers.get(routerName);
+    if (router != null) {
+      router.add(route);
+      return new RouteRegistration(routerName, router, route);
+    }
+    router = new RouterServlet(topLevel.isEmpty() ? null : getRouterName(contextPath, ""));
+    router.add(route);
+    Dictionary<String, String> props = new Hashtable<>();
+    props.put(HTTP_WHITEBOARD_SERVLET_PATTERN, topLevel + "/*");
+    props.put(HTTP_WHITEBOARD_SERVLET_NAME, routerName);
+    props.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, "true");
+    props.put(HTTP_WHITEBOARD_CONTEXT_SELECT, String.format("(osgi.http.whiteboard.context.name=%s)",
+      ServletContextManager.contextPathToName(contextPath)));
+    props.put(SpringMvcConstants.EXTENDER_NAME, "true");
+    log.info("Registering Servlet: {} ...", routerName);
+    registrations.put(routerName, extender.registerService(Servlet.class, router, props));
+    routers.put(routerName, router);
+    return new RouteRegistration(routerName, router, route);
+  }
+
+  /**
+   * @return the whiteboard servlet name of the router of the top-level prefix in the context.
+   */
+  public static String getRouterName(String contextPath, String topLevelPrefix) {
+    return SpringMvcConstants.EXTENDER_NAME + ".router"
+      + ("/".equals(contextPath) ? "" : contextPath) + topLevelPrefix;
+  }
+
+  private synchronized void unregister(String routerName, RouterServlet router,
+    RouterServlet.Route route) {
+    if (!router.remove(route)) {
+      throw new IllegalStateException("Route is already unregistered.");
+    }
+    if (router.isEmpty() && routers.remove(routerName, router)) {
+      try {
+        registrations.remove(routerName).unregister();
+      } catch (IllegalStateException e) {
+        log.debug("Router {} was already unregistered.", routerName);
+      }
+    }
+  }
+
+  private synchronized ServiceReference<Servlet> getReference(String routerName) {
+    ServiceRegistration<Servlet> registration = registrations.get(routerName);
+    if (registration == null) {
+      throw new IllegalStateException("Router " + routerName + " is unregistered.");
+    }
+    return registration.getReference();
+  }
+
+  /**
+   * Stands in for the whiteboard registration of a routed servlet.
+   */
+  private final class RouteRegistration implements ServiceRegistration<Servlet> {
+    private final String routerName;
+    private final RouterServlet router;
+    private final RouterServlet.Route route;
+
+    private RouteRegistration(String routerName, RouterServlet router,
+      RouterServlet.Route route) {
+      this.routerName = routerName;
+      this.router = router;
+      this.route = route;
+    }
+
+    /**
+     * @return the reference of the router servlet.
+     */
+    @Override
+    public ServiceReference<Servlet> getReference() {
+      return RouterRegistry.this.getReference(routerName);
+    }
+
+    /**
+     * Ignored, the properties of the router are shared by all servlets routed through it.
+     */
+    @Override
+    public void setProperties(Dictionary<String, ?> properties) {
+      log.warn("Service properties of {} are not updated, it is routed through {}.", route.getName(),
+        routerName);
+    }
+
+    @Override
+    public void unregister() {
+      RouterRegistry.this.unregister(routerName, router, route);
+      route.getServlet().destroy();
+    }
+  }
+}
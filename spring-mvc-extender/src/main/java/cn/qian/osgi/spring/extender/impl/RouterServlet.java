@@ -0,0 +1,220 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.GenericServlet;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The whiteboard servlet of a top-level segment of a servlet context in router mode, e.g. /api/*
+ * for the url patterns /api/orders/* and /api/users/*, or /* for a bundle mapped to the root. It
+ * keeps the url patterns of the spring mvc bundles below it in a trie of path segments and hands
+ * each request to the bundle with the longest matching prefix, with servlet path and path info as
+ * the container would have set them. Requests no bundle is routed are forwarded to the router of /*
+ * if there is one, else to the default servlet of the context. The trie is rebuilt on every change, so lookups need no
+ * lock.
+ */
+public class RouterServlet extends GenericServlet {
+  private static final long serialVersionUID = 1L;
+  private final transient Map<String, Route> routes = new HashMap<>();
+  private transient volatile Node root = new Node();
+  private final String rootRouter;
+
+  /**
+   * @param rootRouter servlet name of the router of /* in the context, null for that router.
+   */
+  public RouterServlet(String rootRouter) {
+    this.rootRouter = rootRouter;
+  }
+
+  /**
+   * @return the prefix of the url pattern, "" for /*.
+   * @throws IllegalArgumentException if it is not a path prefix pattern.
+   */
+  public static String toPrefix(String urlPattern) {
+    if (!urlPattern.startsWith("/") || !urlPattern.endsWith("/*")
+      || urlPattern.indexOf('*') != urlPattern.length() - 1) {
+      throw new IllegalArgumentException("Url pattern " + urlPattern + " could not be routed.");
+    }
+    return urlPattern.substring(0, urlPattern.length() - 2);
+  }
+
+  /**
+   * @return the first segment of the prefix of the url pattern, e.g. "/api" for /api/orders/*,
+   *   "" for /*.
+   * @throws IllegalArgumentException if it is not a path prefix pattern.
+   */
+  public static String toTopLevelPrefix(String urlPattern) {
+    String prefix = toPrefix(urlPattern);
+    int end = prefix.indexOf('/', 1);
+    return end < 0 ? prefix : prefix.substring(0, end);
+  }
+
+  /**
+   * @throws IllegalStateException if another servlet is routed the same pattern already.
+   */
+  public synchronized void add(Route route) {
+    Route existing = routes.putIfAbsent(route.prefix, route);
+    if (existing != null) {
+      throw new IllegalStateException("Url pattern " + route.prefix + "/* of " + route.name
+        + " overlaps with " + existing.name + ".");
+    }
+    rebuild();
+  }
+
+  public synchronized boolean remove(Route route) {
+    boolean removed = routes.remove(route.prefix, route);
+    if (removed) {
+      rebuild();
+    }
+    return removed;
+  }
+
+  public synchronized boolean isEmpty() {
+    return routes.isEmpty();
+  }
+
+  private void rebuild() {
+    Node newRoot = new Node();
+    routes.values().forEach(r -> {
+      Node node = newRoot;
+      // The prefix starts with a slash, each following segment is one level.
+      int pos = 0;
+      while (pos < r.prefix.length()) {
+        int next = r.prefix.indexOf('/', pos + 1);
+        if (next < 0) {
+          next = r.prefix.length();
+        }
+        node = node.children.computeIfAbsent(r.prefix.substring(pos + 1, next), s -> new Node());
+        pos = next;
+      }
+      node.route = r;
+    });
+    root = newRoot;
+  }
+
+  /**
+   * @return the route with the longest prefix of the path, null if none matches.
+   */
+  Route lookup(String path) {
+    Node node = root;
+    Route match = node.route;
+    int pos = 0;
+    while (pos < path.length()) {
+      int next = path.indexOf('/', pos + 1);
+      if (next < 0) {
+        next = path.length();
+      }
+      node = node.children.get(path.substring(pos + 1, next));
+      if (node == null) {
+        break;
+      }
+      if (node.route != null) {
+        match = node.route;
+      }
+      pos = next;
+    }
+    return match;
+  }
+
+  @Override
+  public void service(ServletRequest req, ServletResponse res)
+    throws ServletException, IOException {
+    HttpServletRequest request = (HttpServletRequest) req;
+    String pathInfo = request.getPathInfo();
+    String path = pathInfo == null ? request.getServletPath()
+      : request.getServletPath() + pathInfo;
+    Route route = lookup(path);
+    if (route == null) {
+      RequestDispatcher fallback = rootRouter == null ? null
+        : getServletContext().getNamedDispatcher(rootRouter);
+      if (fallback == null) {
+        fallback = getServletContext().getNamedDispatcher("default");
+      }
+      if (fallback != null) {
+        fallback.forward(req, res);
+      } else {
+        ((HttpServletResponse) res).sendError(HttpServletResponse.SC_NOT_FOUND);
+      }
+      return;
+    }
+    int end = route.prefix.length();
+    route.servlet.service(new RoutedRequest(request, route.prefix,
+      end == path.length() ? null : path.substring(end)), res);
+  }
+
+  public static final class Route {
+    private final String prefix;
+    private final String name;
+    private final Servlet servlet;
+
+    public Route(String urlPattern, String name, Servlet servlet) {
+      this.prefix = toPrefix(urlPattern);
+      this.name = name;
+      this.servlet = servlet;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Servlet getServlet() {
+      return servlet;
+    }
+  }
+
+  private static final class Node {
+    private final Map<String, Node> children = new HashMap<>();
+    private Route route;
+  }
+
+  private static final class RoutedRequest extends HttpServletRequestWrapper {
+    private final String servletPath;
+    private final String pathInfo;
+
+    private RoutedRequest(HttpServletRequest request, String servletPath, String pathInfo) {
+      super(request);
+      this.servletPath = servletPath;
+      this.pathInfo = pathInfo;
+    }
+
+    @Override
+    public String getServletPath() {
+      return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+      return pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+      return pathInfo == null ? null : getServletContext().getRealPath(pathInfo);
+    }
+  }
+}
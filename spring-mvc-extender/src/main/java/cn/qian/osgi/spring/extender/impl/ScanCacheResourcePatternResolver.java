@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.ResourcePatternResolver;
+
+/**
+ * Answers class scanning patterns (e.g. "classpath*:com/foo/**&#47;*.class") of a bundle from
+ * the {@link ComponentScanCache}, so the matching class files are read without walking the
+ * bundle and its wires. Patterns missing in the cache are resolved by the delegate and recorded.
+ * <p>
+ * All matched class files are recorded, the scanner still applies its filters and conditions to
+ * them on every start. Only patterns matching entries of the bundle itself are recorded, as the
+ * cache is not invalidated when the bundles it imports from change.
+ */
+public class ScanCacheResourcePatternResolver implements ResourcePatternResolver {
+  private static final Logger log = LoggerFactory.getLogger(ScanCacheResourcePatternResolver.class);
+  private final Bundle bundle;
+  private final ResourcePatternResolver delegate;
+  private final Map<String, List<String>> cached;
+  /**
+   * Class resource paths returned for each class pattern, null if a match is no entry of the
+   * bundle.
+   */
+  private final Map<String, List<String>> resolved = new ConcurrentHashMap<>();
+  private final String bundleHost;
+
+  public ScanCacheResourcePatternResolver(Bundle bundle, ResourcePatternResolver delegate,
+    Map<String, List<String>> cached) {
+    this.bundle = bundle;
+    this.delegate = delegate;
+    this.cached = cached == null ? new HashMap<>() : cached;
+    URL root = bundle.getEntry("/");
+    this.bundleHost = root == null ? null : root.getHost();
+  }
+
+  private static boolean isClassPattern(String pattern) {
+    return pattern.endsWith(".class") && (pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0);
+  }
+
+  /**
+   * @return whether the url is an entry of the class path of the bundle itself.
+   */
+  private boolean isOwnEntry(URL url) {
+    return bundleHost != null && url.getPath().startsWith("/")
+      && bundleHost.equals(url.getHost()) && !"jar".equals(url.getProtocol());
+  }
+
+  @Override
+  public Resource[] getResources(String locationPattern) throws IOException {
+    if (!isClassPattern(locationPattern)) {
+      return delegate.getResources(locationPattern);
+    }
+    Resource[] resources = null;
+    List<String> classPaths = cached.get(locationPattern);
+    if (classPaths != null) {
+      resources = fromCache(classPaths);
+      if (resources == null) {
+        log.info("Component scan cache of {} does not match the bundle content.",
+          bundle.getSymbolicName());
+        cached.clear();
+      }
+    }
+    if (resources == null) {
+      resources = delegate.getResources(locationPattern);
+    }
+    List<String> matched = new ArrayList<>(resources.length);
+    for (Resource r : resources) {
+      URL url = r.getURL();
+      if (!isOwnEntry(url)) {
+        matched = null;
+        break;
+      }
+      matched.add(url.getPath().substring(1));
+    }
+    if (matched != null) {
+      resolved.put(locationPattern, matched);
+    } else {
+      resolved.remove(locationPattern);
+      log.debug("{} of {} matches classes of other bundles, it is not cached.", locationPattern,
+        bundle.getSymbolicName());
+    }
+    return resources;
+  }
+
+  private Resource[] fromCache(List<String> classPaths) {
+    Resource[] resources = new Resource[classPaths.size()];
+    for (int i = 0; i < resources.length; i++) {
+      URL url = bundle.getResource(classPaths.get(i));
+      if (url == null || !isOwnEntry(url)) {
+        return null;
+      }
+      resources[i] = new UrlResource(url);
+    }
+    return resources;
+  }
+
+  /**
+   * @return class resource paths by pattern, as stored by the {@link ComponentScanCache}
+   */
+  public Map<String, List<String>> getScanResult() {
+    return new HashMap<>(resolved);
+  }
+
+
+  @Override
+  public Resource getResource(String location) {
+    return delegate.getResource(location);
+  }
+
+  @Override
+  public ClassLoader getClassLoader() {
+    return delegate.getClassLoader();
+  }
+}
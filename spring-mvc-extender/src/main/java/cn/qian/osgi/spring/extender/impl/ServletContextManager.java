@@ -16,23 +16,23 @@
  */
 package cn.qian.osgi.spring.extender.impl;
 
+import cn.qian.osgi.spring.extender.api.ServletContextState;
+import cn.qian.osgi.spring.extender.api.ServletContextStatus;
 import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.servlet.ServletContext;
 import org.osgi.framework.Bundle;
@@ -52,43 +52,54 @@ public class ServletContextManager
   implements ServiceTrackerCustomizer<ServletContext, ServletContext> {
   private volatile BundleContext httpWhiteBoardCtx;
   private final BundleContext extenderContext;
+  private final SpringMvcBundleTracker bundleTracker;
   private final Logger log = LoggerFactory.getLogger(ServletContextManager.class);
-  private ExecutorService executor = Executors.newSingleThreadExecutor();
   /**
-   * Task queue for ServletContexts that are available, except the servlet-context-creating tasks.
-   * The tasks are due to run now.
+   * Runs the tasks of available ServletContexts, in one ordered lane per context path.
    */
-  private final BlockingQueue<SimpleEntry<String, Runnable>> jobs = new LinkedBlockingQueue<>();
+  private final StripedTaskExecutor executor;
   /**
-   * Available servlet contexts.
+   * Expires waiting tasks and readiness futures.
    */
-  private final Set<String> liveCtxPath = Collections.synchronizedSet(new HashSet<>());
-  private final Set<String> pendingCtxPath = Collections.synchronizedSet(new HashSet<>());
+  private final ScheduledThreadPoolExecutor timer;
+  private final long taskTimeout;
   /**
-   * The tasks will not run until the serlvet contexts(key is context path) are available.
+   * Lifecycle of each known context path, transitions are guarded by the state itself.
    */
-  private final Map<String, List<Runnable>> servletContextTaskQs =
-    Collections.synchronizedMap(new HashMap<>());
-  private Thread jobWaitingThread;
+  private final Map<String, ContextPathState> contextPaths = new ConcurrentHashMap<>();
+  private volatile boolean shutdown;
 
-  public ServletContextManager(BundleContext extenderContext) {
+  public ServletContextManager(BundleContext extenderContext,
+    SpringMvcBundleTracker bundleTracker) {
     this.extenderContext = extenderContext;
-    setupJobsWaitingThread();
-  }
-
-  private void setupJobsWaitingThread() {
-    jobWaitingThread = new Thread(() -> {
-      boolean interrupted = false;
-      while (!interrupted) {
-        try {
-          executor.execute(jobs.take().getValue());
-        } catch (InterruptedException e) {
-          interrupted = true;
-          Thread.currentThread().interrupt();
-        }
+    this.bundleTracker = bundleTracker;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String configured =
+      extenderContext.getProperty(SpringMvcConstants.SERVLET_CONTEXT_THREADS_PROPERTY);
+    if (configured != null) {
+      try {
+        threads = Math.max(1, Integer.parseInt(configured.trim()));
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", SpringMvcConstants.SERVLET_CONTEXT_THREADS_PROPERTY, configured);
+      }
+    }
+    executor = new StripedTaskExecutor("jobs", threads);
+    long timeout = 0;
+    configured = extenderContext.getProperty(SpringMvcConstants.SERVLET_CONTEXT_TIMEOUT_PROPERTY);
+    if (configured != null) {
+      try {
+        timeout = Math.max(0, Long.parseLong(configured.trim()));
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", SpringMvcConstants.SERVLET_CONTEXT_TIMEOUT_PROPERTY, configured);
       }
-    }, ServletContextManager.class.getPackage().getName() + "-jobs");
-    jobWaitingThread.start();
+    }
+    taskTimeout = timeout;
+    timer = new ScheduledThreadPoolExecutor(1, r -> {
+      Thread t = new Thread(r, ServletContextManager.class.getPackage().getName() + "-timeouts");
+      t.setDaemon(true);
+      return t;
+    });
+    timer.setRemoveOnCancelPolicy(true);
     //Scheule bundle scannning task
     submitServletContextTask("/", this::scanBundlesForServletContexts);
   }
@@ -105,22 +116,31 @@ public class ServletContextManager
     return ctxPath;
   }
 
+  private ContextPathState stateOf(String path) {
+    return contextPaths.computeIfAbsent(path, ContextPathState::new);
+  }
+
+  private boolean isLive(String path) {
+    ContextPathState state = contextPaths.get(path);
+    return state != null && state.servletContext != null;
+  }
+
   public void scanBundleForServletContext(Bundle bnd) {
-    if ("true".equals(bnd.getHeaders().get(SpringMvcConstants.ENABLED))) {
-      String ctxPath = normalizeCtxPath(bnd.getHeaders().get(SpringMvcConstants.CONTEXT_ROOT));
-      if (!liveCtxPath.contains(ctxPath)) {
+    SpringMvcBundleDescriptor descriptor = bundleTracker.getDescriptor(bnd);
+    if (descriptor.isEnabled()) {
+      String ctxPath = descriptor.getContextPath();
+      if (!isLive(ctxPath)) {
         createServletContext(ctxPath);
       }
     }
   }
 
   public void scanBundlesForServletContexts() {
-    Arrays.stream(extenderContext.getBundles())
-      .filter(bnd -> "true".equals(bnd.getHeaders().get(SpringMvcConstants.ENABLED)))
-      .map(bnd -> normalizeCtxPath(bnd.getHeaders().get(SpringMvcConstants.CONTEXT_ROOT)))
+    bundleTracker.getSpringMvcBundles().stream()
+      .map(bnd -> bundleTracker.getDescriptor(bnd).getContextPath())
       .collect(Collectors.toSet())
       .forEach(p -> {
-        if (!liveCtxPath.contains(p)) {
+        if (!isLive(p)) {
           createServletContext(p);
         }
       });
@@ -143,23 +163,53 @@ public class ServletContextManager
   }
 
   private void doCreatingServletContext(String p) {
-    if ("/".equals(normalizeCtxPath(p)) || pendingCtxPath.contains(p)) {
+    if ("/".equals(normalizeCtxPath(p))) {
       return;
     }
+    ContextPathState state = stateOf(p);
+    synchronized (state) {
+      if (state.state != ServletContextState.WAITING && state.state != ServletContextState.FAILED) {
+        return;
+      }
+      state.state = ServletContextState.CREATING;
+      state.failure = null;
+    }
     Runnable task = () -> {
       log.info("Trying to create ServletContext: {}", p);
       Dictionary<String, String> props = new Hashtable<>();
       props.put(HTTP_WHITEBOARD_CONTEXT_NAME, contextPathToName(p));
       props.put(HTTP_WHITEBOARD_CONTEXT_PATH, p);
       props.put(SpringMvcConstants.EXTENDER_NAME, "true");
-      httpWhiteBoardCtx.registerService(ServletContextHelper.class, new ServletContextHelper() {
-      }, props);
+      try {
+        httpWhiteBoardCtx.registerService(ServletContextHelper.class, new ServletContextHelper() {
+        }, props);
+      } catch (RuntimeException e) {
+        log.error("Failed to create ServletContext {}", p, e);
+        fail(state, e);
+      }
     };
-    pendingCtxPath.add(p);
     // To create servlet contexts, we need to wait default context to be available.
     submitServletContextTask("/", task);
   }
 
+  /**
+   * Fail the readiness future and the waiting tasks of a context the extender could not create.
+   */
+  private void fail(ContextPathState state, Throwable cause) {
+    List<PendingTask> dropped;
+    synchronized (state) {
+      if (state.state != ServletContextState.CREATING) {
+        return;
+      }
+      state.state = ServletContextState.FAILED;
+      state.failure = String.valueOf(cause);
+      state.ready.completeExceptionally(cause);
+      dropped = new ArrayList<>(state.waiting);
+      state.waiting.clear();
+    }
+    dropped.forEach(task -> task.result.completeExceptionally(cause));
+  }
+
   public static String contextPathToName(String p) {
     String name;
     if ("".equals(p) || "/".equals(p)) {
@@ -171,54 +221,126 @@ public class ServletContextManager
   }
 
   public void shutdown() {
-    if (executor != null) {
-      executor.shutdownNow();
-      executor = null;
+    shutdown = true;
+    executor.shutdown();
+    timer.shutdownNow();
+    IllegalStateException cause = new IllegalStateException("Extender is shutting down");
+    contextPaths.values().forEach(state -> {
+      List<PendingTask> dropped;
+      synchronized (state) {
+        state.ready.completeExceptionally(cause);
+        dropped = new ArrayList<>(state.waiting);
+        state.waiting.clear();
+      }
+      dropped.forEach(task -> task.result.completeExceptionally(cause));
+    });
+  }
+
+  /**
+   * submit a task which will run when the servlet context path is available. Tasks of the same
+   * path run in submission order.
+   *
+   * @return completes once the task has run, fails if the task threw, or if the context did not
+   *   become available in time. Cancelling it before the task runs skips the task.
+   */
+  public CompletableFuture<Void> submitServletContextTask(String path, Runnable task) {
+    PendingTask pending = new PendingTask(task);
+    if (shutdown) {
+      pending.result.completeExceptionally(new IllegalStateException("Extender is shutting down"));
+      return pending.result;
+    }
+    ContextPathState state = stateOf(path);
+    boolean waiting;
+    synchronized (state) {
+      waiting = state.servletContext == null;
+      if (waiting) {
+        state.waiting.add(pending);
+      } else {
+        executor.execute(path, pending);
+      }
     }
-    if (jobWaitingThread != null) {
-      jobWaitingThread.interrupt();
-      jobWaitingThread = null;
+    if (waiting && taskTimeout > 0) {
+      ScheduledFuture<?> expiry =
+        timer.schedule(() -> expire(state, pending), taskTimeout, TimeUnit.MILLISECONDS);
+      pending.result.whenComplete((r, e) -> expiry.cancel(false));
     }
+    return pending.result;
   }
 
-  private synchronized void initServletContextTaskQ(String contextPath) {
-    if (servletContextTaskQs.get(contextPath) == null) {
-      List<Runnable> servletContextTasks = new LinkedList<>();
-      servletContextTaskQs.put(contextPath, servletContextTasks);
+  private void expire(ContextPathState state, PendingTask pending) {
+    boolean removed;
+    synchronized (state) {
+      removed = state.waiting.remove(pending);
+    }
+    if (removed) {
+      log.warn("ServletContext {} is not available after {}ms, dropping a task.", state.path,
+        taskTimeout);
+      pending.result.completeExceptionally(new TimeoutException(
+        "ServletContext " + state.path + " is not available after " + taskTimeout + "ms"));
     }
   }
 
   /**
-   * submit a task which will run when the servlet context path is available
+   * @return the live servlet context of the path, or null if it is not available yet.
    */
-  public synchronized void submitServletContextTask(String path, Runnable task) {
-    if (liveCtxPath.contains(path)) {
-      jobs.add(new SimpleEntry<>(path, task));
-    } else {
-      initServletContextTaskQ(path);
-      servletContextTaskQs.get(path).add(task);
+  public ServletContext getServletContext(String path) {
+    ContextPathState state = contextPaths.get(path);
+    return state == null ? null : state.servletContext;
+  }
+
+  /**
+   * @return completes with the servlet context once it is live, the returned future is a copy
+   *   which the caller may cancel or complete.
+   */
+  public CompletableFuture<ServletContext> whenReady(String path) {
+    ContextPathState state = stateOf(normalizeCtxPath(path));
+    synchronized (state) {
+      return state.ready.thenApply(Function.identity());
+    }
+  }
+
+  public CompletableFuture<ServletContext> whenReady(String path, long timeout, TimeUnit unit) {
+    CompletableFuture<ServletContext> ready = whenReady(path);
+    if (!ready.isDone()) {
+      ScheduledFuture<?> expiry = timer.schedule(() -> ready.completeExceptionally(
+        new TimeoutException("ServletContext " + path + " is not available after "
+          + unit.toMillis(timeout) + "ms")), timeout, unit);
+      ready.whenComplete((r, e) -> expiry.cancel(false));
     }
+    return ready;
+  }
+
+  public Collection<ServletContextStatus> listStatus() {
+    return contextPaths.values().stream()
+      .map(state -> {
+        synchronized (state) {
+          return new ServletContextStatus(state.path, state.state, state.waiting.size(),
+            state.failure);
+        }
+      })
+      .collect(Collectors.toList());
   }
 
   @Override
-  public synchronized ServletContext addingService(ServiceReference<ServletContext> reference) {
+  public ServletContext addingService(ServiceReference<ServletContext> reference) {
     BundleContext bndCtx = reference.getBundle().getBundleContext();
     ServletContext servletContext = bndCtx.getService(reference);
     String contextPath = normalizeCtxPath(servletContext.getContextPath());
     log.info("ServletContext {} is now starting up......", contextPath);
-    liveCtxPath.add(contextPath);
-    pendingCtxPath.remove(contextPath);
     if ("/".equals(contextPath)) {
       httpWhiteBoardCtx = bndCtx;
     }
-    //Move the tasks from waiting queue to running queue
-    List<Runnable> tasks = servletContextTaskQs.remove(contextPath);
-    if (tasks != null) {
-      jobs.addAll(tasks
-        .stream()
-        .map((r) -> new SimpleEntry<>(contextPath, r))
-        .collect(Collectors.toList()));
-      tasks.clear();
+    ContextPathState state = stateOf(contextPath);
+    synchronized (state) {
+      state.state = ServletContextState.LIVE;
+      state.failure = null;
+      state.servletContext = servletContext;
+      if (!state.ready.complete(servletContext)) {
+        state.ready = CompletableFuture.completedFuture(servletContext);
+      }
+      //Move the tasks from waiting queue to the lane of the context path
+      state.waiting.forEach(task -> executor.execute(contextPath, task));
+      state.waiting.clear();
     }
     return servletContext;
   }
@@ -229,12 +351,51 @@ public class ServletContextManager
   }
 
   @Override
-  public synchronized void removedService(ServiceReference<ServletContext> reference,
+  public void removedService(ServiceReference<ServletContext> reference,
     ServletContext service) {
-    BundleContext bndCtx = reference.getBundle().getBundleContext();
-    ServletContext servletContext = bndCtx.getService(reference);
-    String ctxPath = normalizeCtxPath(servletContext.getContextPath());
-    liveCtxPath.remove(ctxPath);
+    String ctxPath = normalizeCtxPath(service.getContextPath());
+    ContextPathState state = stateOf(ctxPath);
+    synchronized (state) {
+      state.state = ServletContextState.WAITING;
+      state.servletContext = null;
+      state.ready = new CompletableFuture<>();
+    }
     log.info("ServletContext {} is now shutting down......", ctxPath);
   }
+
+  private static final class ContextPathState {
+    private final String path;
+    private final List<PendingTask> waiting = new ArrayList<>();
+    private ServletContextState state = ServletContextState.WAITING;
+    private volatile ServletContext servletContext;
+    private CompletableFuture<ServletContext> ready = new CompletableFuture<>();
+    private String failure;
+
+    private ContextPathState(String path) {
+      this.path = path;
+    }
+  }
+
+  private static final class PendingTask implements Runnable {
+    private final Runnable task;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private PendingTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      if (result.isDone()) {
+        return;
+      }
+      try {
+        task.run();
+        result.complete(null);
+      } catch (RuntimeException e) {
+        result.completeExceptionally(e);
+        throw e;
+      }
+    }
+  }
 }
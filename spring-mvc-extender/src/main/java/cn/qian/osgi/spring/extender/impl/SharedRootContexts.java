@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Named root contexts shared by several bundles. A shared root context is built by the first
+ * bundle using it, and closed when the last one releases it. It is built with the class loader
+ * and bundle context of that bundle, so once the builder releases it, it is no longer handed out
+ * and the remaining users have to move to a new one.
+ */
+public class SharedRootContexts {
+  private static final Logger log = LoggerFactory.getLogger(SharedRootContexts.class);
+  private final Map<String, SharedRootContext> contexts = new HashMap<>();
+  private final Map<DispatcherEntry, SharedRootContext> memberships = new IdentityHashMap<>();
+
+  /**
+   * Take a reference to the shared root context, building it with the factory if no other entry
+   * holds it. Entries waiting for the same context block until it is refreshed.
+   *
+   * @throws RuntimeException thrown by the factory, the reference is released then.
+   */
+  public ConfigurableApplicationContext acquire(String name, DispatcherEntry entry,
+    Supplier<ConfigurableApplicationContext> factory) {
+    SharedRootContext shared;
+    synchronized (contexts) {
+      shared = contexts.get(name);
+      if (shared != null && isNewGenerationOfBuilder(shared, entry)) {
+        // E.g. a blue/green update of the bundle which built it, the new revision builds its own.
+        log.info("Spring Root Context {} is rebuilt for the new revision of {}.", name,
+          entry.getBundle().getSymbolicName());
+        contexts.remove(name);
+        shared = null;
+      }
+      if (shared == null) {
+        shared = new SharedRootContext();
+        contexts.put(name, shared);
+      }
+      shared.users.add(entry);
+      memberships.put(entry, shared);
+    }
+    synchronized (shared) {
+      if (shared.context == null) {
+        shared.builder = entry;
+        try {
+          shared.context = factory.get();
+        } catch (RuntimeException e) {
+          shared.builder = null;
+          release(name, entry);
+          throw e;
+        }
+      } else {
+        log.info("Sharing Spring Root Context {} with {}.", shared.context.getDisplayName(),
+          entry.getBundle().getSymbolicName());
+      }
+      return shared.context;
+    }
+  }
+
+  private static boolean isNewGenerationOfBuilder(SharedRootContext shared, DispatcherEntry entry) {
+    DispatcherEntry builder = shared.builder;
+    return builder != null && builder != entry
+      && builder.getBundle().getBundleId() == entry.getBundle().getBundleId();
+  }
+
+  /**
+   * Drop the reference of the entry, closing the context if it was the last one. Releasing
+   * twice is harmless.
+   *
+   * @return the entries still using the context if the entry built it, they should be restarted
+   *   to get a new one. The stale context is closed when the last of them releases it.
+   */
+  public Collection<DispatcherEntry> release(String name, DispatcherEntry entry) {
+    SharedRootContext shared;
+    synchronized (contexts) {
+      shared = memberships.remove(entry);
+      if (shared == null || !shared.users.remove(entry)) {
+        return Collections.emptyList();
+      }
+      if (!shared.users.isEmpty()) {
+        if (shared.builder != entry) {
+          return Collections.emptyList();
+        }
+        // New users get a context built with their own bundle.
+        contexts.remove(name, shared);
+        log.info("Shared spring root context {} is released by the bundle which built it.", name);
+        return new ArrayList<>(shared.users);
+      }
+      contexts.remove(name, shared);
+    }
+    synchronized (shared) {
+      if (shared.context != null) {
+        log.info("Shutting down shared spring context: {} ...", shared.context.getDisplayName());
+        shared.context.close();
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  private static final class SharedRootContext {
+    private final Set<DispatcherEntry> users = Collections.newSetFromMap(new IdentityHashMap<>());
+    private ConfigurableApplicationContext context;
+    private volatile DispatcherEntry builder;
+  }
+}
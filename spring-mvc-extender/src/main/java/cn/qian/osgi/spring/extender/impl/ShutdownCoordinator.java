@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.servlet.Servlet;
+import org.osgi.framework.ServiceRegistration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Stops many dispatchers at once. Every servlet is unregistered first, so no request reaches a
+ * context being closed, then the contexts are closed in parallel on a bounded pool within a
+ * global deadline. The contexts of an entry are closed by one task, the bundle context before
+ * its root context, and a shared root context is closed by the task releasing its last user.
+ * Startups still running close what they built themselves, as their entries are stopped, and
+ * are awaited within the same deadline.
+ */
+public class ShutdownCoordinator {
+  private static final Logger log = LoggerFactory.getLogger(ShutdownCoordinator.class);
+  private final int threads;
+  private final long timeout;
+
+  /**
+   * @param timeout milliseconds to wait for all contexts to close.
+   */
+  public ShutdownCoordinator(int threads, long timeout) {
+    this.threads = Math.max(1, threads);
+    this.timeout = Math.max(0, timeout);
+  }
+
+  /**
+   * @param close    closes the contexts of an entry.
+   * @param startups the pool to await the startups of, null not to wait for them. Startups still
+   *   running at the deadline are interrupted.
+   * @return the names of the contexts still closing or starting at the deadline, they are left
+   *   to close in the background.
+   */
+  public List<String> shutdown(Collection<DispatcherEntry> entries,
+    Consumer<DispatcherEntry> close, SpringContextStartupPool startups) {
+    long start = System.currentTimeMillis();
+    long deadline = start + timeout;
+    List<String> overdue = new ArrayList<>();
+    if (!entries.isEmpty()) {
+      closeAll(entries, close, deadline, overdue);
+    }
+    if (startups != null
+      && !startups.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()))) {
+      startups.getRunning().forEach(b -> overdue.add("startup of " + b.getSymbolicName()));
+      startups.shutdownNow();
+    }
+    if (overdue.isEmpty()) {
+      log.info("Spring contexts of {} bundles closed in {} ms.", entries.size(),
+        System.currentTimeMillis() - start);
+    } else {
+      log.warn("Spring contexts not closed within {} ms: {}", timeout, overdue);
+    }
+    return overdue;
+  }
+
+  private void closeAll(Collection<DispatcherEntry> entries, Consumer<DispatcherEntry> close,
+    long deadline, List<String> overdue) {
+    entries.forEach(ShutdownCoordinator::unregister);
+    AtomicInteger threadNo = new AtomicInteger();
+    String threadPrefix = ShutdownCoordinator.class.getPackage().getName() + "-shutdown-";
+    int poolSize = Math.min(threads, entries.size());
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0,
+      TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, threadPrefix + threadNo.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+    Map<DispatcherEntry, Future<?>> closing = new LinkedHashMap<>();
+    entries.forEach(e -> closing.put(e, executor.submit(() -> close(e, close))));
+    executor.shutdown();
+    boolean interrupted = false;
+    for (Map.Entry<DispatcherEntry, Future<?>> e : closing.entrySet()) {
+      try {
+        if (interrupted) {
+          e.getValue().get(0, TimeUnit.MILLISECONDS);
+        } else {
+          e.getValue().get(Math.max(0, deadline - System.currentTimeMillis()),
+            TimeUnit.MILLISECONDS);
+        }
+      } catch (TimeoutException ex) {
+        overdue.add(getName(e.getKey()));
+      } catch (InterruptedException ex) {
+        interrupted = true;
+        Thread.currentThread().interrupt();
+        if (!e.getValue().isDone()) {
+          overdue.add(getName(e.getKey()));
+        }
+      } catch (ExecutionException ex) {
+        log.warn("Failed to close spring contexts of {}", getName(e.getKey()), ex.getCause());
+      }
+    }
+  }
+
+  private static void unregister(DispatcherEntry entry) {
+    ServiceRegistration<Servlet> registration = entry.getRegistration();
+    if (registration != null) {
+      try {
+        registration.unregister();
+      } catch (IllegalStateException e) {
+        log.debug("Servlet of {} was already unregistered.", entry.getBundle().getSymbolicName());
+      }
+    }
+  }
+
+  private static void close(DispatcherEntry entry, Consumer<DispatcherEntry> close) {
+    try {
+      close.accept(entry);
+    } catch (RuntimeException e) {
+      log.warn("Failed to close spring contexts of {}", getName(entry), e);
+    }
+  }
+
+  private static String getName(DispatcherEntry entry) {
+    ConfigurableApplicationContext appCtx = entry.getSpringContext();
+    return appCtx != null ? appCtx.getDisplayName() : entry.getBundle().getSymbolicName();
+  }
+}
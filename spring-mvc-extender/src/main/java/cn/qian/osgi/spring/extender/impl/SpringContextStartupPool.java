@@ -0,0 +1,142 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded worker pool refreshing spring contexts in parallel.
+ * Tasks of bundles with a higher {@link SpringMvcConstants#STARTUP_PRIORITY} run first,
+ * tasks with the same priority run in submission order.
+ */
+public class SpringContextStartupPool {
+  private static final Logger log = LoggerFactory.getLogger(SpringContextStartupPool.class);
+  private final AtomicLong sequence = new AtomicLong();
+  private final Set<Bundle> running = ConcurrentHashMap.newKeySet();
+  private final ThreadPoolExecutor executor;
+
+  public SpringContextStartupPool(BundleContext extenderContext) {
+    int threads = Runtime.getRuntime().availableProcessors();
+    String configured = extenderContext.getProperty(SpringMvcConstants.STARTUP_THREADS_PROPERTY);
+    if (configured != null) {
+      try {
+        threads = Math.max(1, Integer.parseInt(configured.trim()));
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", SpringMvcConstants.STARTUP_THREADS_PROPERTY, configured);
+      }
+    }
+    AtomicInteger threadNo = new AtomicInteger();
+    String threadPrefix = SpringContextStartupPool.class.getPackage().getName() + "-startup-";
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new PriorityBlockingQueue<>(),
+      r -> new Thread(r, threadPrefix + threadNo.incrementAndGet()));
+    executor.allowCoreThreadTimeOut(true);
+    log.info("Spring context startup pool is using {} threads.", threads);
+  }
+
+  public void submit(Bundle bnd, int priority, Runnable task) {
+    try {
+      executor.execute(new PrioritizedTask(priority, sequence.getAndIncrement(), () -> {
+        running.add(bnd);
+        try {
+          task.run();
+        } finally {
+          running.remove(bnd);
+        }
+      }));
+    } catch (RejectedExecutionException e) {
+      log.warn("Startup pool is shut down, skipping {}.", bnd.getSymbolicName());
+    }
+  }
+
+  /**
+   * Drop the queued tasks and accept no new ones, the running ones are left to complete.
+   */
+  public void shutdown() {
+    executor.shutdown();
+    List<Runnable> dropped = new ArrayList<>();
+    executor.getQueue().drainTo(dropped);
+    if (!dropped.isEmpty()) {
+      log.info("Dropped {} queued spring context startups.", dropped.size());
+    }
+  }
+
+  /**
+   * Interrupt the running tasks, for when they did not complete in time.
+   */
+  public void shutdownNow() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return false if tasks are still running after the timeout, in milliseconds.
+   */
+  public boolean awaitTermination(long timeout) {
+    try {
+      return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return executor.isTerminated();
+    }
+  }
+
+  /**
+   * @return the bundles whose tasks are running.
+   */
+  public Collection<Bundle> getRunning() {
+    return Collections.unmodifiableSet(running);
+  }
+
+  private static final class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+    private final int priority;
+    private final long seq;
+    private final Runnable task;
+
+    private PrioritizedTask(int priority, long seq, Runnable task) {
+      this.priority = priority;
+      this.seq = seq;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+
+    @Override
+    public int compareTo(PrioritizedTask o) {
+      int c = Integer.compare(o.priority, priority);
+      return c != 0 ? c : Long.compare(seq, o.seq);
+    }
+  }
+}
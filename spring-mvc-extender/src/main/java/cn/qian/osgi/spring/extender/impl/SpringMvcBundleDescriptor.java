@@ -0,0 +1,282 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static cn.qian.osgi.spring.extender.impl.ServletContextManager.normalizeCtxPath;
+
+/**
+ * Spring mvc settings of a bundle, parsed once from the manifest headers of a bundle revision.
+ */
+public final class SpringMvcBundleDescriptor {
+  private static final Logger log = LoggerFactory.getLogger(SpringMvcBundleDescriptor.class);
+  private static final int DEFAULT_MAX_QUEUE = 100;
+  private final long bundleId;
+  private final BundleRevision revision;
+  private final boolean enabled;
+  private final String contextPath;
+  private final String urlPattern;
+  private final List<String> rootConfigClasses;
+  private final String rootContextName;
+  private final List<String> configClasses;
+  private final int startupPriority;
+  private final boolean scanCacheEnabled;
+  private final Boolean warmup;
+  private final List<String> warmupPaths;
+  private final Boolean lazyInit;
+  private final Boolean blueGreenUpdate;
+  private final int drainTimeout;
+  private final int maxThreads;
+  private final int maxQueue;
+  private final long responseCacheSize;
+  private final List<String> staticResources;
+
+  private SpringMvcBundleDescriptor(Bundle bnd, Dictionary<String, String> headers) {
+    bundleId = bnd.getBundleId();
+    revision = bnd.adapt(BundleRevision.class);
+    enabled = Boolean.parseBoolean(headers.get(SpringMvcConstants.ENABLED));
+    contextPath = normalizeCtxPath(headers.get(SpringMvcConstants.CONTEXT_ROOT));
+    urlPattern = normalizeUrlPattern(headers.get(SpringMvcConstants.SERVLET_PATTERN));
+    rootConfigClasses = parseClassNames(headers.get(SpringMvcConstants.ROOT_CONTEXT_CONFIG_CLASSES));
+    configClasses = parseClassNames(headers.get(SpringMvcConstants.CONTEXT_CONFIG_CLASSES));
+    String rootName = headers.get(SpringMvcConstants.ROOT_CONTEXT_NAME);
+    rootContextName = rootName == null || rootName.trim().isEmpty() ? null : rootName.trim();
+    startupPriority = parseInt(bnd, headers, SpringMvcConstants.STARTUP_PRIORITY, 0);
+    scanCacheEnabled = !"false".equalsIgnoreCase(headers.get(SpringMvcConstants.SCAN_CACHE));
+    String warmupHeader = headers.get(SpringMvcConstants.WARMUP);
+    warmup = warmupHeader == null ? null : Boolean.valueOf(warmupHeader.trim());
+    warmupPaths = parseList(headers.get(SpringMvcConstants.WARMUP_PATHS));
+    String lazyInitHeader = headers.get(SpringMvcConstants.LAZY_INIT);
+    lazyInit = lazyInitHeader == null ? null : Boolean.valueOf(lazyInitHeader.trim());
+    blueGreenUpdate = parseUpdateMode(bnd, headers.get(SpringMvcConstants.UPDATE_MODE));
+    drainTimeout = parseInt(bnd, headers, SpringMvcConstants.DRAIN_TIMEOUT, -1);
+    maxThreads = parseInt(bnd, headers, SpringMvcConstants.MAX_THREADS, 0);
+    maxQueue = Math.max(0, parseInt(bnd, headers, SpringMvcConstants.MAX_QUEUE, DEFAULT_MAX_QUEUE));
+    String cacheSize = headers.get(SpringMvcConstants.RESPONSE_CACHE);
+    responseCacheSize = cacheSize == null ? -1 : ResponseCache.parseSize(cacheSize);
+    if (cacheSize != null && responseCacheSize < 0) {
+      log.warn("Invalid {} of {}", SpringMvcConstants.RESPONSE_CACHE, bnd.getSymbolicName());
+    }
+    staticResources = Collections.unmodifiableList(
+      parseList(headers.get(SpringMvcConstants.STATIC_RESOURCES)).stream()
+        .map(SpringMvcBundleDescriptor::normalizeFolder)
+        .collect(Collectors.toList()));
+  }
+
+  public static SpringMvcBundleDescriptor parse(Bundle bnd) {
+    // Raw headers: no localization lookups are needed for the extender headers.
+    return new SpringMvcBundleDescriptor(bnd, bnd.getHeaders(""));
+  }
+
+  public static String normalizeUrlPattern(String servletPattern) {
+    if (servletPattern == null) {
+      servletPattern = "/*";
+    } else {
+      servletPattern = servletPattern.trim();
+      if (!servletPattern.endsWith("*")) {
+        if (!servletPattern.endsWith("/")) {
+          servletPattern += "/";
+        }
+        servletPattern += "*";
+      }
+    }
+    return servletPattern;
+  }
+
+  private static String normalizeFolder(String folder) {
+    String normalized = folder.startsWith("/") ? folder : "/" + folder;
+    while (normalized.length() > 1 && normalized.endsWith("/")) {
+      normalized = normalized.substring(0, normalized.length() - 1);
+    }
+    return normalized;
+  }
+
+  /**
+   * @return null if the mode is not specified.
+   */
+  private static Boolean parseUpdateMode(Bundle bnd, String mode) {
+    if (mode == null) {
+      return null;
+    }
+    mode = mode.trim();
+    if (SpringMvcConstants.UPDATE_MODE_BLUE_GREEN.equalsIgnoreCase(mode)) {
+      return Boolean.TRUE;
+    }
+    if (!SpringMvcConstants.UPDATE_MODE_RESTART.equalsIgnoreCase(mode)) {
+      log.warn("Invalid {} of {}", SpringMvcConstants.UPDATE_MODE, bnd.getSymbolicName());
+    }
+    return Boolean.FALSE;
+  }
+
+  private static List<String> parseClassNames(String classNames) {
+    return classNames == null ? null : parseList(classNames);
+  }
+
+  private static List<String> parseList(String values) {
+    if (values == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(Arrays.stream(values.split(","))
+      .map(String::trim)
+      .filter(c -> !c.isEmpty())
+      .collect(Collectors.toList()));
+  }
+
+  static int parseInt(Bundle bnd, Dictionary<String, String> headers, String header,
+    int defaultValue) {
+    String value = headers.get(header);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {} of {}", header, bnd.getSymbolicName());
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * @return true if the descriptor was parsed from the current revision of the bundle, an update
+   *   gives a new revision even if the last-modified stamp stays the same.
+   */
+  public boolean isCurrent(Bundle bnd) {
+    return bnd.getBundleId() == bundleId && revision != null
+      && revision.equals(bnd.adapt(BundleRevision.class));
+  }
+
+  public long getBundleId() {
+    return bundleId;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public String getContextPath() {
+    return contextPath;
+  }
+
+  public String getUrlPattern() {
+    return urlPattern;
+  }
+
+  /**
+   * @return null if the bundle does not want a root context.
+   */
+  public List<String> getRootConfigClasses() {
+    return rootConfigClasses;
+  }
+
+  /**
+   * @return name of the root context shared with other bundles, null if the root context is
+   *   private to the bundle.
+   */
+  public String getRootContextName() {
+    return rootContextName;
+  }
+
+  /**
+   * @return null if no configuration class is specified.
+   */
+  public List<String> getConfigClasses() {
+    return configClasses;
+  }
+
+  public int getStartupPriority() {
+    return startupPriority;
+  }
+
+  public boolean isScanCacheEnabled() {
+    return scanCacheEnabled;
+  }
+
+  /**
+   * @return null if the bundle does not specify it.
+   */
+  public Boolean getWarmup() {
+    return warmup;
+  }
+
+  /**
+   * @return GET paths, relative to the dispatcher url pattern, to request before the dispatcher
+   *   is published.
+   */
+  public List<String> getWarmupPaths() {
+    return warmupPaths;
+  }
+
+  /**
+   * @return null if the bundle does not specify it.
+   */
+  public Boolean getLazyInit() {
+    return lazyInit;
+  }
+
+  /**
+   * @return null if the bundle does not specify it.
+   */
+  public Boolean getBlueGreenUpdate() {
+    return blueGreenUpdate;
+  }
+
+  /**
+   * @return the drain timeout in milliseconds, negative if the bundle does not specify it.
+   */
+  public int getDrainTimeout() {
+    return drainTimeout;
+  }
+
+  /**
+   * @return size of the request executor of the bundle, 0 if the bundle runs requests on the
+   *   container threads.
+   */
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * @return number of requests which may wait for a thread of the request executor.
+   */
+  public int getMaxQueue() {
+    return maxQueue;
+  }
+
+  /**
+   * @return memory budget of the response cache in bytes, negative if the bundle does not
+   *   specify it.
+   */
+  public long getResponseCacheSize() {
+    return responseCacheSize;
+  }
+
+  /**
+   * @return bundle folders served as static resources under the dispatcher url pattern.
+   */
+  public List<String> getStaticResources() {
+    return staticResources;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.util.tracker.BundleTracker;
+import org.osgi.util.tracker.BundleTrackerCustomizer;
+
+/**
+ * Keeps a {@link SpringMvcBundleDescriptor} for every installed bundle, so that the headers of a
+ * bundle are parsed once per install/update.
+ */
+public class SpringMvcBundleTracker implements BundleTrackerCustomizer<SpringMvcBundleDescriptor> {
+  private static final int TRACKED_STATES =
+    Bundle.INSTALLED | Bundle.RESOLVED | Bundle.STARTING | Bundle.ACTIVE | Bundle.STOPPING;
+  private final Map<Long, SpringMvcBundleDescriptor> descriptors = new ConcurrentHashMap<>();
+  private final Map<Long, Bundle> mvcBundles = new ConcurrentHashMap<>();
+  private final List<LongConsumer> revisionListeners = new CopyOnWriteArrayList<>();
+  private final BundleTracker<SpringMvcBundleDescriptor> tracker;
+
+  public SpringMvcBundleTracker(BundleContext extenderContext) {
+    tracker = new BundleTracker<>(extenderContext, TRACKED_STATES, this);
+  }
+
+  /**
+   * The listener is notified with the bundle id whenever a bundle is updated or uninstalled, so
+   * that anything cached for the previous revision could be dropped.
+   */
+  public void addRevisionListener(LongConsumer listener) {
+    revisionListeners.add(listener);
+  }
+
+  public void open() {
+    tracker.open();
+  }
+
+  public void close() {
+    tracker.close();
+    descriptors.clear();
+    mvcBundles.clear();
+  }
+
+  /**
+   * @return the descriptor of the current revision of the bundle.
+   */
+  public SpringMvcBundleDescriptor getDescriptor(Bundle bnd) {
+    SpringMvcBundleDescriptor descriptor = descriptors.get(bnd.getBundleId());
+    if (descriptor == null || !descriptor.isCurrent(bnd)) {
+      // The tracker may not be notified yet about the bundle event being processed.
+      descriptor = update(bnd);
+    }
+    return descriptor;
+  }
+
+  /**
+   * @return the bundles having spring mvc enabled.
+   */
+  public Collection<Bundle> getSpringMvcBundles() {
+    return mvcBundles.values().stream()
+      .filter(b -> getDescriptor(b).isEnabled())
+      .collect(Collectors.toList());
+  }
+
+  private SpringMvcBundleDescriptor update(Bundle bnd) {
+    SpringMvcBundleDescriptor descriptor = SpringMvcBundleDescriptor.parse(bnd);
+    if (bnd.getState() == Bundle.UNINSTALLED) {
+      return descriptor;
+    }
+    SpringMvcBundleDescriptor previous = descriptors.put(bnd.getBundleId(), descriptor);
+    if (previous != null && !previous.isCurrent(bnd)) {
+      revisionListeners.forEach(l -> l.accept(bnd.getBundleId()));
+    }
+    if (descriptor.isEnabled()) {
+      mvcBundles.put(bnd.getBundleId(), bnd);
+    } else {
+      mvcBundles.remove(bnd.getBundleId());
+    }
+    return descriptor;
+  }
+
+  @Override
+  public SpringMvcBundleDescriptor addingBundle(Bundle bundle, BundleEvent event) {
+    return getDescriptor(bundle);
+  }
+
+  @Override
+  public void modifiedBundle(Bundle bundle, BundleEvent event,
+    SpringMvcBundleDescriptor descriptor) {
+    getDescriptor(bundle);
+  }
+
+  @Override
+  public void removedBundle(Bundle bundle, BundleEvent event,
+    SpringMvcBundleDescriptor descriptor) {
+    descriptors.remove(bundle.getBundleId());
+    mvcBundles.remove(bundle.getBundleId());
+    if (bundle.getState() == Bundle.UNINSTALLED) {
+      // Not called for closing the tracker.
+      revisionListeners.forEach(l -> l.accept(bundle.getBundleId()));
+    }
+  }
+}
@@ -16,36 +16,24 @@
  */
 package cn.qian.osgi.spring.extender.impl;
 
-import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.SynchronousBundleListener;
 
+/**
+ * Hands the bundle events over to the {@link BundleEventPipeline}, so that the framework event
+ * thread is only blocked by spring contexts of stopping bundles.
+ */
 @SuppressFBWarnings("EI_EXPOSE_REP2")
 public class SpringMvcConfigurationListener implements SynchronousBundleListener {
-  private final SpringMvcConfigurationManager springMvcConfigurationManager;
-  private final ServletContextManager servletContextManager;
+  private final BundleEventPipeline eventPipeline;
 
-  public SpringMvcConfigurationListener(SpringMvcConfigurationManager springMvcConfigurationManager,
-      ServletContextManager servletContextManager) {
-    this.springMvcConfigurationManager = springMvcConfigurationManager;
-    this.servletContextManager = servletContextManager;
+  public SpringMvcConfigurationListener(BundleEventPipeline eventPipeline) {
+    this.eventPipeline = eventPipeline;
   }
 
   @Override
   public void bundleChanged(BundleEvent bundleEvent) {
-    switch (bundleEvent.getType()) {
-      case BundleEvent.INSTALLED:
-        servletContextManager.scanBundleForServletContext(bundleEvent.getBundle());
-        break;
-      case BundleEvent.STARTED:
-        springMvcConfigurationManager.createSpringMvcConfig(bundleEvent.getBundle());
-        break;
-      case BundleEvent.STOPPING:
-        springMvcConfigurationManager.destroySpringMvcConfig(bundleEvent.getBundle());
-        break;
-      default:
-        break;
-    }
+    eventPipeline.submit(bundleEvent);
   }
 }
@@ -16,10 +16,19 @@
  */
 package cn.qian.osgi.spring.extender.impl;
 
+import cn.qian.osgi.spring.extender.api.BulkheadStats;
+import cn.qian.osgi.spring.extender.api.ContextFootprint;
+import cn.qian.osgi.spring.extender.api.MetadataCacheStats;
+import cn.qian.osgi.spring.extender.api.RequestStats;
+import cn.qian.osgi.spring.extender.api.ScanCacheEntry;
+import cn.qian.osgi.spring.extender.api.ServletContextStatus;
 import cn.qian.osgi.spring.extender.api.SpringMvcConfigurationManager;
 import cn.qian.osgi.spring.extender.api.SpringMvcConstants;
+import cn.qian.osgi.spring.extender.api.SpringMvcStatistics;
+import cn.qian.osgi.spring.extender.api.StartupReport;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -27,36 +36,37 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 import org.eclipse.gemini.blueprint.io.OsgiBundleResourcePatternResolver;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
-import org.osgi.service.cm.Configuration;
-import org.osgi.service.cm.ConfigurationAdmin;
+import org.osgi.framework.wiring.BundleWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.AnnotatedBeanDefinitionReader;
 import org.springframework.context.support.GenericApplicationContext;
-import org.springframework.web.context.WebApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.io.support.ResourcePatternResolver;
 import org.springframework.web.context.support.GenericWebApplicationContext;
-import org.springframework.web.servlet.DispatcherServlet;
-import org.springframework.web.servlet.HandlerInterceptor;
-import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
-import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
-import static cn.qian.osgi.spring.extender.impl.ServletContextManager.normalizeCtxPath;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_SELECT;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_NAME;
@@ -64,72 +74,600 @@ import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHIT
 
 @SuppressWarnings({"unchecked", "SpellCheckingInspection"})
 @SuppressFBWarnings("EI_EXPOSE_REP2")
-public class SpringMvcConfigurationManagerImpl implements SpringMvcConfigurationManager {
+public class SpringMvcConfigurationManagerImpl
+    implements SpringMvcConfigurationManager, SpringMvcStatistics {
   private static final Logger log =
       LoggerFactory.getLogger(SpringMvcConfigurationManagerImpl.class);
+  private static final long DEFAULT_DRAIN_TIMEOUT = 30000;
+  private static final long DEFAULT_STANDBY_TIMEOUT = 60000;
+  private static final long DEFAULT_STATIC_MEMORY = 8 * 1024 * 1024;
+  private static final long DEFAULT_STATIC_MAX_AGE = 86400;
+  private static final int DEFAULT_METADATA_CACHE_SIZE = 4096;
+  private static final long DEFAULT_SHUTDOWN_TIMEOUT = 30000;
+  private static final long DRAIN_POLL_INTERVAL = 100;
+  private static final int PRE_INSTANTIATION_PRIORITY = Integer.MIN_VALUE;
   private final BundleContext extender;
   private final ServletContextManager servletContextManager;
-  private final Map<String, ServiceRegistration<Servlet>> dispatcherRegs = new HashMap<>();
+  private final SpringMvcBundleTracker bundleTracker;
+  private final DispatcherRegistry dispatcherRegistry = new DispatcherRegistry();
+  private final SpringContextStartupPool startupPool;
+  private final ShutdownCoordinator shutdownCoordinator;
+  /**
+   * Set once the extender is stopping, no dispatcher is started afterwards.
+   */
+  private volatile boolean shuttingDown;
+  private final ComponentScanCache scanCache;
+  private final SharedRootContexts sharedRootContexts = new SharedRootContexts();
+  private final Map<Long, StartupTimeline> startupTimelines = new ConcurrentHashMap<>();
+  private final Map<Long, CachingResourcePatternResolver> resourceResolvers =
+      new ConcurrentHashMap<>();
+  private final boolean warmupByDefault;
+  private final boolean lazyInitByDefault;
+  private final boolean statsEnabled;
+  private final double profileSampleRate;
+  private final long profileSlowThreshold;
+  private final long responseCacheSize;
+  private final File staticDataRoot;
+  private final long staticMemory;
+  private final long staticMaxAge;
+  private final int metadataCacheSize;
+  private final boolean trieMappingEnabled;
+  /**
+   * Null unless the router mode is enabled.
+   */
+  private final RouterRegistry routerRegistry;
+  private final boolean blueGreenByDefault;
+  private final long drainTimeout;
+  private final long standbyTimeout;
+  private final ScheduledExecutorService updateScheduler;
+  /**
+   * Replaced blue/green generations waiting for their requests to drain.
+   */
+  private final Map<DispatcherEntry, BlueGreenServlet.Generation> retiring =
+      new ConcurrentHashMap<>();
+  private final PaxWebTcclConfiguration tcclConfiguration;
 
   public SpringMvcConfigurationManagerImpl(BundleContext bndCtx,
-      ServletContextManager servletContextManager) {
+      ServletContextManager servletContextManager, SpringMvcBundleTracker bundleTracker) {
     this.extender = bndCtx;
     this.servletContextManager = servletContextManager;
+    this.bundleTracker = bundleTracker;
+    this.startupPool = new SpringContextStartupPool(bndCtx);
+    this.shutdownCoordinator = new ShutdownCoordinator((int) getLongProperty(bndCtx,
+        SpringMvcConstants.SHUTDOWN_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+        getLongProperty(bndCtx, SpringMvcConstants.SHUTDOWN_TIMEOUT_PROPERTY,
+            DEFAULT_SHUTDOWN_TIMEOUT));
+    this.scanCache = new ComponentScanCache(bndCtx);
+    this.warmupByDefault =
+        Boolean.parseBoolean(bndCtx.getProperty(SpringMvcConstants.WARMUP_PROPERTY));
+    this.lazyInitByDefault =
+        Boolean.parseBoolean(bndCtx.getProperty(SpringMvcConstants.LAZY_INIT_PROPERTY));
+    this.statsEnabled =
+        !"false".equalsIgnoreCase(bndCtx.getProperty(SpringMvcConstants.STATS_PROPERTY));
+    this.profileSampleRate = getSampleRate(bndCtx);
+    this.profileSlowThreshold =
+        Math.max(0, getLongProperty(bndCtx, SpringMvcConstants.PROFILE_SLOW_THRESHOLD_PROPERTY, 0));
+    String cacheSize = bndCtx.getProperty(SpringMvcConstants.RESPONSE_CACHE_PROPERTY);
+    this.responseCacheSize = cacheSize == null ? 0 : Math.max(0, ResponseCache.parseSize(cacheSize));
+    this.staticDataRoot = bndCtx.getDataFile("static-resources");
+    StaticResourceIndex.clean(staticDataRoot);
+    String staticMemorySize = bndCtx.getProperty(SpringMvcConstants.STATIC_MEMORY_PROPERTY);
+    this.staticMemory = staticMemorySize == null ? DEFAULT_STATIC_MEMORY
+        : Math.max(0, ResponseCache.parseSize(staticMemorySize));
+    this.staticMaxAge = Math.max(0,
+        getLongProperty(bndCtx, SpringMvcConstants.STATIC_MAX_AGE_PROPERTY, DEFAULT_STATIC_MAX_AGE));
+    this.metadataCacheSize = (int) Math.min(Integer.MAX_VALUE, Math.max(0, getLongProperty(bndCtx,
+        SpringMvcConstants.METADATA_CACHE_PROPERTY, DEFAULT_METADATA_CACHE_SIZE)));
+    this.routerRegistry =
+        Boolean.parseBoolean(bndCtx.getProperty(SpringMvcConstants.ROUTER_PROPERTY))
+            ? new RouterRegistry(bndCtx) : null;
+    this.trieMappingEnabled =
+        Boolean.parseBoolean(bndCtx.getProperty(SpringMvcConstants.TRIE_MAPPING_PROPERTY));
+    this.blueGreenByDefault = SpringMvcConstants.UPDATE_MODE_BLUE_GREEN
+        .equalsIgnoreCase(bndCtx.getProperty(SpringMvcConstants.UPDATE_MODE_PROPERTY));
+    this.drainTimeout =
+        getLongProperty(bndCtx, SpringMvcConstants.DRAIN_TIMEOUT_PROPERTY, DEFAULT_DRAIN_TIMEOUT);
+    this.standbyTimeout = getLongProperty(bndCtx, SpringMvcConstants.STANDBY_TIMEOUT_PROPERTY,
+        DEFAULT_STANDBY_TIMEOUT);
+    String threadName = SpringMvcConfigurationManagerImpl.class.getPackage().getName() + "-update";
+    this.updateScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, threadName);
+      t.setDaemon(true);
+      return t;
+    });
+    bundleTracker.addRevisionListener(scanCache::invalidate);
+    bundleTracker.addRevisionListener(resourceResolvers::remove);
+    this.tcclConfiguration = new PaxWebTcclConfiguration(bndCtx);
+    tcclConfiguration.open();
+  }
+
+  private static long getLongProperty(BundleContext bndCtx, String property, long defaultValue) {
+    String value = bndCtx.getProperty(property);
+    if (value != null) {
+      try {
+        return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", property, value);
+      }
+    }
+    return defaultValue;
+  }
+
+  private static double getSampleRate(BundleContext bndCtx) {
+    String value = bndCtx.getProperty(SpringMvcConstants.PROFILE_SAMPLE_RATE_PROPERTY);
+    if (value != null) {
+      try {
+        return Math.min(1, Math.max(0, Double.parseDouble(value.trim())));
+      } catch (NumberFormatException e) {
+        log.warn("Invalid {}: {}", SpringMvcConstants.PROFILE_SAMPLE_RATE_PROPERTY, value);
+      }
+    }
+    return 0;
+  }
+
+  public void shutdown() {
+    shuttingDown = true;
+    startupPool.shutdown();
+    updateScheduler.shutdownNow();
+    // Their retirement tasks were dropped with the scheduler.
+    retiring.keySet().forEach((previous) -> closeRetired(previous, 0));
+    destroyAllSpringMvcConfigs(startupPool);
+    tcclConfiguration.close();
   }
 
   @Override
   public void destroySpringMvcConfig(Bundle bnd) {
-    if (mvcEnabled(bnd)) {
-      DispatcherServlet dispatcherServlet = getDispacher(bnd);
-      if (dispatcherServlet != null) {
-        ConfigurableApplicationContext appCtx =
-            (ConfigurableApplicationContext) dispatcherServlet.getWebApplicationContext();
-        if (appCtx != null) {
-          ServiceRegistration<Servlet> registration;
-          try {
-            registration = appCtx.getBean(ServiceRegistration.class);
-            registration.unregister();
-          } catch (Exception e) {
-            log.error("ServiceRegistration was not saved?", e);
-          }
-          ConfigurableApplicationContext rootCtx =
-              (ConfigurableApplicationContext) appCtx.getParent();
-          if (rootCtx != null) {
-            log.info("Shutting down spring context: {} ...", rootCtx.getDisplayName());
-            rootCtx.close();
-          }
-          log.info("Shutting down spring context: {} ...", appCtx.getDisplayName());
-          appCtx.close();
-        }
+    if (bnd.getState() == Bundle.UNINSTALLED) {
+      startupTimelines.remove(bnd.getBundleId());
+    }
+    destroySpringMvcConfig(bnd.getBundleId());
+  }
+
+  private void destroySpringMvcConfig(DispatcherEntry entry) {
+    ServiceRegistration<Servlet> registration = entry.getRegistration();
+    if (registration != null) {
+      try {
+        registration.unregister();
+      } catch (IllegalStateException e) {
+        log.debug("Servlet of {} was already unregistered.", entry.getBundle().getSymbolicName());
       }
     }
+    closeSpringContexts(entry);
+  }
+
+  private void closeSpringContexts(DispatcherEntry entry) {
+    ConfigurableApplicationContext appCtx = entry.getSpringContext();
+    if (appCtx != null) {
+      log.info("Shutting down spring context: {} ...", appCtx.getDisplayName());
+      appCtx.close();
+    }
+    ConfigurableApplicationContext rootCtx = entry.getSpringRootContext();
+    if (entry.getSharedRootContextName() != null) {
+      restartSharedRootUsers(sharedRootContexts.release(entry.getSharedRootContextName(), entry));
+    } else if (rootCtx != null) {
+      log.info("Shutting down spring context: {} ...", rootCtx.getDisplayName());
+      rootCtx.close();
+    }
+  }
+
+  /**
+   * Move the running users of a shared root context built by a bundle which went away to a new
+   * one, the stale context is closed once all of them have released it.
+   */
+  private void restartSharedRootUsers(Collection<DispatcherEntry> users) {
+    users.forEach((user) -> {
+      Bundle bnd = user.getBundle();
+      if (dispatcherRegistry.get(bnd.getBundleId()) == user) {
+        log.info("Restarting {} with a new shared root context.", bnd.getSymbolicName());
+        destroySpringMvcConfig(bnd.getBundleId());
+        createSpringMvcConfig(bnd);
+      }
+    });
   }
 
   @Override
   public void createSpringMvcConfig(Bundle bnd) {
-    if (!mvcEnabled(bnd)) {
+    SpringMvcBundleDescriptor descriptor = bundleTracker.getDescriptor(bnd);
+    if (!descriptor.isEnabled()) {
       log.debug("{} is not a spring mvc bundle.", bnd.getSymbolicName());
+      // A blue/green standby left behind by an update which dropped spring mvc.
+      destroySpringMvcConfig(bnd.getBundleId());
     } else if (bnd.getState() != Bundle.ACTIVE) {
       log.info("Bundle {} is not in active status.", bnd.getSymbolicName());
     } else {
       servletContextManager.scanBundleForServletContext(bnd);
-      String ctxPath = getCtxPath(bnd);
+      String ctxPath = descriptor.getContextPath();
+      StartupTimeline timeline = new StartupTimeline(bnd);
+      StartupTimeline.Phase contextWait = timeline.begin(StartupTimeline.SERVLET_CONTEXT_WAIT);
       servletContextManager.submitServletContextTask(ctxPath, () -> {
-        DispatcherServlet dispatcher = getDispacher(bnd);
-        if (dispatcher == null) {
-          getOrCreateDispacher(bnd);
+        contextWait.end();
+        StartupTimeline.Phase queueWait = timeline.begin(StartupTimeline.STARTUP_QUEUE_WAIT);
+        startupPool.submit(bnd, descriptor.getStartupPriority(), () -> {
+          queueWait.end();
+          startSpringMvcConfig(bnd, ctxPath, timeline);
+        });
+      }).whenComplete((r, e) -> {
+        if (e != null) {
+          contextWait.end();
+          log.info("Spring mvc of {} is not started: {}", bnd.getSymbolicName(), e.toString());
         }
       });
     }
   }
 
-  private static String getCtxPath(Bundle bnd) {
-    return normalizeCtxPath(bnd.getHeaders().get(SpringMvcConstants.CONTEXT_ROOT));
+  /**
+   * Refresh the spring contexts of the bundle eagerly and publish its dispatcher servlet.
+   * Runs on the startup pool once the servlet context is live.
+   */
+  private void startSpringMvcConfig(Bundle bnd, String ctxPath, StartupTimeline timeline) {
+    if (bnd.getState() != Bundle.ACTIVE) {
+      return;
+    }
+    ServletContext servletContext = servletContextManager.getServletContext(ctxPath);
+    if (servletContext == null) {
+      log.info("ServletContext {} is gone, postponing {}.", ctxPath, bnd.getSymbolicName());
+      createSpringMvcConfig(bnd);
+      return;
+    }
+    DispatcherEntry entry = dispatcherRegistry.reserve(bnd);
+    if (entry == null) {
+      DispatcherEntry standby = dispatcherRegistry.get(bnd.getBundleId());
+      if (standby != null && standby.compareAndSetState(DispatcherEntry.State.STANDBY,
+          DispatcherEntry.State.REPLACING)) {
+        startupTimelines.put(bnd.getBundleId(), timeline);
+        replaceSpringMvcConfig(standby, servletContext, timeline);
+      } else {
+        log.info("Spring Context {} is already running.", getSpringContextName(bnd));
+      }
+      return;
+    }
+    if (shuttingDown) {
+      // Reserved after the dispatchers were collected for the shutdown.
+      dispatcherRegistry.remove(entry);
+      return;
+    }
+    long start = System.currentTimeMillis();
+    startupTimelines.put(bnd.getBundleId(), timeline);
+    entry.setStartupTimeline(timeline);
+    entry.setDescriptor(bundleTracker.getDescriptor(bnd));
+    if (!refreshSpringContexts(entry, servletContext)) {
+      dispatcherRegistry.remove(entry);
+      return;
+    }
+    if (entry.getState() == DispatcherEntry.State.STOPPING) {
+      // Destroyed while refreshing, its servlet is not published at all.
+      dispatcherRegistry.remove(entry);
+      closeSpringContexts(entry);
+      return;
+    }
+    StartupTimeline.Phase dispatcherInit = timeline.begin(StartupTimeline.DISPATCHER_INIT);
+    try {
+      registerDispatcher(entry);
+    } catch (Exception e) {
+      log.error("Failed to start dispatcher of {}", bnd.getSymbolicName(), e);
+      dispatcherRegistry.remove(entry);
+      closeSpringContexts(entry);
+      return;
+    } finally {
+      dispatcherInit.end();
+    }
+    if (!entry.compareAndSetState(DispatcherEntry.State.STARTING, DispatcherEntry.State.ACTIVE)) {
+      // Destroyed while starting up.
+      destroySpringMvcConfig(entry);
+      return;
+    }
+    finishStartup(entry, timeline);
+    log.info("Spring Mvc bundle {} started in {} ms.", bnd.getSymbolicName(),
+        System.currentTimeMillis() - start);
+    if (isLazyInit(entry.getDescriptor())) {
+      // After the other bundles waiting for a refresh.
+      startupPool.submit(bnd, PRE_INSTANTIATION_PRIORITY, () -> preInstantiateSingletons(entry));
+    }
+  }
+
+  /**
+   * Stop recording bean creations once the dispatcher is serving, they would otherwise grow the
+   * timeline and emit events for every prototype or scoped bean created by requests.
+   */
+  private static void finishStartup(DispatcherEntry entry, StartupTimeline timeline) {
+    timeline.finish();
+    for (ConfigurableApplicationContext ctx : Arrays.asList(entry.getSpringRootContext(),
+        entry.getSpringContext())) {
+      if (ctx != null) {
+        ctx.setApplicationStartup(ApplicationStartup.DEFAULT);
+        ctx.getBeanFactory().setApplicationStartup(ApplicationStartup.DEFAULT);
+      }
+    }
+  }
+
+  /**
+   * Create the singletons made lazy by {@link LazyInitBeanFactoryPostProcessor}, so that only the
+   * requests arriving meanwhile pay for them.
+   */
+  private void preInstantiateSingletons(DispatcherEntry entry) {
+    long start = System.currentTimeMillis();
+    Thread thread = Thread.currentThread();
+    ClassLoader tccl = thread.getContextClassLoader();
+    int created = 0;
+    StartupTimeline.Phase phase =
+        entry.getStartupTimeline().begin(StartupTimeline.PRE_INSTANTIATION);
+    try {
+      thread.setContextClassLoader(entry.getClassLoader());
+      for (ConfigurableApplicationContext ctx : Arrays.asList(entry.getSpringRootContext(),
+          entry.getSpringContext())) {
+        if (ctx != null) {
+          created += LazyInitBeanFactoryPostProcessor.preInstantiateSingletons(
+              ctx.getBeanFactory(),
+              () -> !ctx.isActive() || entry.getState() == DispatcherEntry.State.STOPPING);
+        }
+      }
+    } finally {
+      thread.setContextClassLoader(tccl);
+      phase.end();
+    }
+    log.info("Pre-instantiated {} lazy beans of {} in {} ms.", new Object[] {created,
+        entry.getBundle().getSymbolicName(), System.currentTimeMillis() - start});
+  }
+
+  /**
+   * Create and refresh the spring contexts described by the descriptor of the entry.
+   *
+   * @return false if the contexts failed to start, they are closed already.
+   */
+  private boolean refreshSpringContexts(DispatcherEntry entry, ServletContext servletContext) {
+    Bundle bnd = entry.getBundle();
+    SpringMvcBundleDescriptor descriptor = entry.getDescriptor();
+    ResourcePatternResolver resLoader = getResourcePatternResolver(bnd);
+    MetadataReaderCache metadataReaders = resLoader instanceof CachingResourcePatternResolver
+        ? ((CachingResourcePatternResolver) resLoader).getMetadataReaderCache() : null;
+    Map<String, List<String>> cachedScan = null;
+    if (descriptor.isScanCacheEnabled() && scanCache.isEnabled()) {
+      cachedScan = scanCache.load(bnd);
+      resLoader = new ScanCacheResourcePatternResolver(bnd, resLoader, cachedScan);
+    }
+    StartupTimeline timeline = entry.getStartupTimeline();
+    GenericWebApplicationContext appCtx =
+        createSpringContext(bnd, descriptor, resLoader, metadataReaders, timeline);
+    entry.setSpringContext(appCtx);
+    if (statsEnabled) {
+      RequestStatsRecorder statsRecorder = new RequestStatsRecorder();
+      entry.setStatsRecorder(statsRecorder);
+      appCtx.getBeanFactory().registerSingleton(RequestStatsRecorder.BEAN_NAME, statsRecorder);
+    }
+    Thread thread = Thread.currentThread();
+    ClassLoader tccl = thread.getContextClassLoader();
+    try {
+      ClassLoader bndClassLoader = bnd.adapt(BundleWiring.class).getClassLoader();
+      entry.setClassLoader(bndClassLoader);
+      // Threads started by the contexts inherit it, so they could be told apart.
+      thread.setContextClassLoader(bndClassLoader);
+      ConfigurableApplicationContext rootCtx;
+      String sharedRootName = descriptor.getRootContextName();
+      if (sharedRootName != null && descriptor.getRootConfigClasses() != null) {
+        entry.setSharedRootContextName(sharedRootName);
+        ResourcePatternResolver rootResLoader = resLoader;
+        rootCtx = sharedRootContexts.acquire(sharedRootName, entry, () -> {
+          ConfigurableApplicationContext ctx = createSpringRootContext(bnd, descriptor,
+              rootResLoader, metadataReaders,
+              SpringMvcConstants.ROOT_CONTEXT_NAME_PREFIX + sharedRootName, timeline);
+          try {
+            refreshSpringRootContext(ctx, bndClassLoader, timeline);
+          } catch (RuntimeException e) {
+            ctx.close();
+            throw e;
+          }
+          return ctx;
+        });
+        entry.setSpringRootContext(rootCtx);
+      } else {
+        rootCtx = createSpringRootContext(bnd, descriptor, resLoader, metadataReaders,
+            getSpringRootContextName(bnd), timeline);
+        entry.setSpringRootContext(rootCtx);
+        if (rootCtx != null) {
+          refreshSpringRootContext(rootCtx, bndClassLoader, timeline);
+        }
+      }
+      if (rootCtx != null) {
+        appCtx.setParent(rootCtx);
+      }
+      long ctxStart = System.currentTimeMillis();
+      appCtx.setServletContext(servletContext);
+      appCtx.setClassLoader(bndClassLoader);
+      StartupTimeline.Phase refresh = timeline.begin(StartupTimeline.REFRESH);
+      try {
+        appCtx.refresh();
+      } finally {
+        refresh.end();
+      }
+      log.info("Spring Context {} refreshed in {} ms.", appCtx.getDisplayName(),
+          System.currentTimeMillis() - ctxStart);
+      if (resLoader instanceof ScanCacheResourcePatternResolver) {
+        storeScanResult(bnd, (ScanCacheResourcePatternResolver) resLoader, cachedScan);
+      }
+      return true;
+    } catch (Exception e) {
+      log.error("Failed to start spring contexts of {}", bnd.getSymbolicName(), e);
+      closeSpringContexts(entry);
+      return false;
+    } finally {
+      thread.setContextClassLoader(tccl);
+    }
+  }
+
+  /**
+   * @return the resolver shared by the contexts of the current wiring of the bundle.
+   */
+  private ResourcePatternResolver getResourcePatternResolver(Bundle bnd) {
+    BundleWiring wiring = bnd.adapt(BundleWiring.class);
+    if (wiring == null) {
+      return new OsgiBundleResourcePatternResolver(bnd);
+    }
+    return resourceResolvers.compute(bnd.getBundleId(),
+        (id, resolver) -> resolver != null && resolver.isCurrent(wiring)
+            ? resolver : new CachingResourcePatternResolver(bnd, wiring, metadataCacheSize));
+  }
+
+  private static void refreshSpringRootContext(ConfigurableApplicationContext rootCtx,
+      ClassLoader bndClassLoader, StartupTimeline timeline) {
+    long rootStart = System.currentTimeMillis();
+    rootCtx.setClassLoader(bndClassLoader);
+    StartupTimeline.Phase refresh = timeline.begin(StartupTimeline.ROOT_REFRESH);
+    try {
+      rootCtx.refresh();
+    } finally {
+      refresh.end();
+    }
+    log.info("Spring Root Context {} refreshed in {} ms.", rootCtx.getDisplayName(),
+        System.currentTimeMillis() - rootStart);
+  }
+
+  /**
+   * Keep the dispatcher of a blue/green bundle serving while the bundle is being updated,
+   * otherwise destroy it.
+   */
+  public void bundleStopping(Bundle bnd) {
+    DispatcherEntry entry = dispatcherRegistry.get(bnd.getBundleId());
+    if (entry == null || entry.getFront() == null
+        || !entry.compareAndSetState(DispatcherEntry.State.ACTIVE, DispatcherEntry.State.STANDBY)) {
+      destroySpringMvcConfig(bnd);
+      return;
+    }
+    log.info("Dispatcher {} stays in standby for up to {} ms.", getDispatcherName(bnd),
+        standbyTimeout);
+    Runnable expire = () -> {
+      if (entry.compareAndSetState(DispatcherEntry.State.STANDBY, DispatcherEntry.State.STOPPING)) {
+        log.info("No new version of {} started, shutting it down.", bnd.getSymbolicName());
+        dispatcherRegistry.remove(entry);
+        destroySpringMvcConfig(entry);
+      }
+    };
+    try {
+      updateScheduler.schedule(expire, standbyTimeout, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      expire.run();
+    }
+  }
+
+  /**
+   * Build and warm up the contexts of the new bundle revision, then swap its dispatcher in behind
+   * the servlet of the standby entry and retire the old one once its requests are drained.
+   */
+  private void replaceSpringMvcConfig(DispatcherEntry previous, ServletContext servletContext,
+      StartupTimeline timeline) {
+    Bundle bnd = previous.getBundle();
+    SpringMvcBundleDescriptor descriptor = bundleTracker.getDescriptor(bnd);
+    SpringMvcBundleDescriptor previousDescriptor = previous.getDescriptor();
+    if (!isBlueGreen(descriptor)
+        || !descriptor.getContextPath().equals(previousDescriptor.getContextPath())
+        || !descriptor.getUrlPattern().equals(previousDescriptor.getUrlPattern())) {
+      log.info("Dispatcher mapping of {} changed, restarting it.", bnd.getSymbolicName());
+      destroySpringMvcConfig(bnd.getBundleId());
+      createSpringMvcConfig(bnd);
+      return;
+    }
+    long start = System.currentTimeMillis();
+    BlueGreenServlet front = previous.getFront();
+    DispatcherEntry next = new DispatcherEntry(bnd);
+    next.setDescriptor(descriptor);
+    next.setFront(front);
+    next.setRegistration(previous.getRegistration());
+    next.setStartupTimeline(timeline);
+    BundleDispatcherServlet dispatcher;
+    if (!refreshSpringContexts(next, servletContext)) {
+      destroySpringMvcConfig(bnd.getBundleId());
+      return;
+    }
+    if (isLazyInit(descriptor)) {
+      // The old version keeps serving meanwhile.
+      preInstantiateSingletons(next);
+    }
+    StartupTimeline.Phase dispatcherInit = timeline.begin(StartupTimeline.DISPATCHER_INIT);
+    try {
+      ServletConfig config = front.getServletConfig() != null ? front.getServletConfig()
+          : new ExtenderServletConfig(getDispatcherName(bnd), servletContext);
+      dispatcher = createDispatcher(next, config, true);
+    } catch (Exception e) {
+      log.error("Failed to start dispatcher of {}", bnd.getSymbolicName(), e);
+      closeSpringContexts(next);
+      destroySpringMvcConfig(bnd.getBundleId());
+      return;
+    } finally {
+      dispatcherInit.end();
+    }
+    next.setDispatcher(dispatcher);
+    next.getSpringContext().getBeanFactory()
+        .registerSingleton("dispatcherServletRegistration", next.getRegistration());
+    if (!dispatcherRegistry.replace(previous, next)) {
+      // Destroyed while replacing.
+      dispatcher.destroy();
+      closeSpringContexts(next);
+      return;
+    }
+    previous.stop();
+    BlueGreenServlet.Generation retired = front.swap(dispatcher);
+    finishStartup(next, timeline);
+    log.info("Spring Mvc bundle {} swapped in {} ms.", bnd.getSymbolicName(),
+        System.currentTimeMillis() - start);
+    long timeout = descriptor.getDrainTimeout() >= 0 ? descriptor.getDrainTimeout() : drainTimeout;
+    retiring.put(previous, retired);
+    retire(previous, retired, System.currentTimeMillis() + timeout);
+    if (!next.compareAndSetState(DispatcherEntry.State.STARTING, DispatcherEntry.State.ACTIVE)) {
+      destroySpringMvcConfig(next);
+    }
+  }
+
+  /**
+   * Close the replaced contexts once their in-flight requests are done or the deadline is over.
+   */
+  private void retire(DispatcherEntry previous, BlueGreenServlet.Generation generation,
+      long deadline) {
+    BundleBulkhead bulkhead = generation.getDispatcher().getBulkhead();
+    int inFlight = generation.getInFlight() + (bulkhead == null ? 0 : bulkhead.getPending());
+    if (inFlight > 0 && System.currentTimeMillis() < deadline) {
+      try {
+        updateScheduler.schedule(() -> retire(previous, generation, deadline),
+            DRAIN_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        return;
+      } catch (RejectedExecutionException e) {
+        log.debug("Update scheduler is shut down.");
+      }
+    }
+    closeRetired(previous, inFlight);
+  }
+
+  private void closeRetired(DispatcherEntry previous, int inFlight) {
+    BlueGreenServlet.Generation generation = retiring.remove(previous);
+    if (generation == null) {
+      // Closed already, by the shutdown or its retirement task.
+      return;
+    }
+    if (inFlight > 0) {
+      log.warn("Closing old contexts of {} with {} requests in flight.",
+          previous.getBundle().getSymbolicName(), inFlight);
+    }
+    generation.getDispatcher().destroy();
+    closeSpringContexts(previous);
+  }
+
+  private boolean isLazyInit(SpringMvcBundleDescriptor descriptor) {
+    Boolean lazyInit = descriptor.getLazyInit();
+    return lazyInit == null ? lazyInitByDefault : lazyInit;
+  }
+
+  private boolean isBlueGreen(SpringMvcBundleDescriptor descriptor) {
+    Boolean blueGreen = descriptor.getBlueGreenUpdate();
+    return blueGreen == null ? blueGreenByDefault : blueGreen;
   }
 
   @Override
   public void destroySpringMvcConfig(long bndId) {
-    destroySpringMvcConfig(extender.getBundle(bndId));
+    DispatcherEntry entry = dispatcherRegistry.remove(bndId);
+    if (entry != null) {
+      DispatcherEntry.State state = entry.stop();
+      if (state != DispatcherEntry.State.STARTING && state != DispatcherEntry.State.STOPPING) {
+        destroySpringMvcConfig(entry);
+      }
+    }
   }
 
   @Override
@@ -139,50 +677,33 @@ public class SpringMvcConfigurationManagerImpl implements SpringMvcConfiguration
 
   @Override
   public Map<String, Object> getSpringContextBeans(Bundle bnd) {
-    Map<String, Object> beans = new HashMap<>();
-    if (mvcEnabled(bnd)) {
-      DispatcherServlet dispatcherServlet = getDispacher(bnd);
-      if (dispatcherServlet != null) {
-        ConfigurableApplicationContext appCtx =
-            (ConfigurableApplicationContext) dispatcherServlet.getWebApplicationContext();
-        if (appCtx != null) {
-          Arrays.stream(appCtx.getBeanDefinitionNames())
-              .forEach((n) -> beans.put(n, appCtx.getBean(n)));
-        }
-      }
-    }
-    return beans;
+    return getSpringContextBeans(bnd.getBundleId());
   }
 
   @Override
   public Map<String, Object> getSpringContextBeans(long bndId) {
-    return getSpringContextBeans(extender.getBundle(bndId));
+    DispatcherEntry entry = dispatcherRegistry.getActive(bndId);
+    return entry == null ? new HashMap<>() : getBeans(entry.getSpringContext());
   }
 
   @Override
   public Map<String, Object> getSpringRootContextBeans(Bundle bnd) {
-    Map<String, Object> beans = new HashMap<>();
-    if (mvcEnabled(bnd)) {
-      DispatcherServlet dispatcherServlet = getDispacher(bnd);
-      if (dispatcherServlet != null) {
-        ConfigurableApplicationContext appCtx =
-            (ConfigurableApplicationContext) dispatcherServlet.getWebApplicationContext();
-        if (appCtx != null) {
-          ConfigurableApplicationContext rootCtx =
-              (ConfigurableApplicationContext) appCtx.getParent();
-          if (rootCtx != null) {
-            Arrays.stream(appCtx.getBeanDefinitionNames())
-                .forEach((n) -> beans.put(n, appCtx.getBean(n)));
-          }
-        }
-      }
-    }
-    return beans;
+    return getSpringRootContextBeans(bnd.getBundleId());
   }
 
   @Override
   public Map<String, Object> getSpringRootContextBeans(long bndId) {
-    return getSpringRootContextBeans(extender.getBundle(bndId));
+    DispatcherEntry entry = dispatcherRegistry.getActive(bndId);
+    return entry == null ? new HashMap<>() : getBeans(entry.getSpringRootContext());
+  }
+
+  private static Map<String, Object> getBeans(ConfigurableApplicationContext appCtx) {
+    Map<String, Object> beans = new HashMap<>();
+    if (appCtx != null) {
+      Arrays.stream(appCtx.getBeanDefinitionNames())
+          .forEach((n) -> beans.put(n, appCtx.getBean(n)));
+    }
+    return beans;
   }
 
   private String getSpringContextName(Bundle bnd) {
@@ -197,255 +718,346 @@ public class SpringMvcConfigurationManagerImpl implements SpringMvcConfiguration
     return SpringMvcConstants.DISPATCHER_NAME_PREFIX + bnd.getSymbolicName();
   }
 
-  private boolean mvcEnabled(Bundle bnd) {
-    return Boolean.parseBoolean(bnd.getHeaders().get(SpringMvcConstants.ENABLED));
-  }
-
-  private boolean needTcclFixInterceptor() {
-    boolean need = true;
-    ServiceReference<ConfigurationAdmin> sr =
-        extender.getServiceReference(ConfigurationAdmin.class);
-    try {
-      if (sr != null) {
-        ConfigurationAdmin cm = extender.getService(sr);
-        if (cm != null) {
-          Configuration conf = cm.getConfiguration("org.ops4j.pax.web");
-          need = !"whiteboard".equals(conf.getProperties().get("org.ops4j.pax.web.tccl.type"));
-        }
-      }
-    } catch (IOException e) {
-    } finally {
-      extender.ungetService(sr);
+  private void storeScanResult(Bundle bnd, ScanCacheResourcePatternResolver resLoader,
+      Map<String, List<String>> cachedScan) {
+    Map<String, List<String>> scanResult = resLoader.getScanResult();
+    if (!scanResult.equals(cachedScan)) {
+      scanCache.store(bnd, scanResult);
     }
-    return need;
   }
 
-  private GenericWebApplicationContext getOrCreateSpringContext(Bundle bnd) {
+  private GenericWebApplicationContext createSpringContext(Bundle bnd,
+      SpringMvcBundleDescriptor descriptor, ResourcePatternResolver resLoader,
+      MetadataReaderCache metadataReaders, StartupTimeline timeline) {
     String springContextName = getSpringContextName(bnd);
-    DispatcherServlet dispatcher = getDispacher(bnd);
-    GenericWebApplicationContext appCtx = null;
-    if (dispatcher != null) {
-      appCtx = (GenericWebApplicationContext) dispatcher.getWebApplicationContext();
-    }
-    if (appCtx == null) {
-      log.info("Creating Spring Context: {} ......", springContextName);
-      OsgiBundleResourcePatternResolver resLoader = new OsgiBundleResourcePatternResolver(bnd);
-      appCtx = new GenericWebApplicationContext();
-      appCtx.setDisplayName(springContextName);
-      appCtx.setResourceLoader(resLoader);
-      appCtx.getBeanFactory()
-          .registerSingleton(SpringMvcConstants.BUNDLE_CONTEXT, bnd.getBundleContext());
-      // Get the installed whiteboard version.
-      Bundle whiteBoard = null;
-      Bundle[] bundles = bnd.getBundleContext().getBundles();
-      for (Bundle bundle : bundles) {
-        if ("org.ops4j.pax.web.pax-web-extender-whiteboard".equals(bundle.getSymbolicName())) {
-          if (whiteBoard == null) {
-            whiteBoard = bundle;
-          }
-          if (whiteBoard.getVersion().compareTo(bundle.getVersion()) < 0) {
-            whiteBoard = bundle;
-          }
-        }
-      }
-      // Workarround for pax web bug about tccl when org.ops4j.pax.web.tccl.type != whiteboard
-      if (needTcclFixInterceptor()) {
-        appCtx.getBeanFactory()
-            .registerSingleton("setClassLoadInterceptor", new WebMvcConfigurer() {
-              @Override
-              public void addInterceptors(InterceptorRegistry registry) {
-                registry.addInterceptor(new HandlerInterceptor() {
-                  @Override
-                  public boolean preHandle(HttpServletRequest request, HttpServletResponse response,
-                      Object handler) {
-                    Thread.currentThread()
-                        .setContextClassLoader(request.getServletContext().getClassLoader());
-                    return true;
-                  }
-                });
-              }
-            });
-      }
-      String configCls = bnd.getHeaders().get(SpringMvcConstants.CONTEXT_CONFIG_CLASSES);
-      if (configCls != null) {
-        log.info("Loading spring context configuration classes for {} .....", springContextName);
-        AnnotatedBeanDefinitionReader annotatedBeanDefinitionReader =
-            new AnnotatedBeanDefinitionReader(appCtx);
-        String[] cfgs = configCls.split(",");
-        Arrays.stream(cfgs).forEach(c -> {
-          try {
-            annotatedBeanDefinitionReader.register(bnd.loadClass(c.trim()));
-          } catch (Exception e) {
-            log.error("Failed to load {}", c, e);
-          }
-        });
+    log.info("Creating Spring Context: {} ......", springContextName);
+    GenericWebApplicationContext appCtx = new GenericWebApplicationContext() {
+      @Override
+      public <T> Map<Resource, T> getResourceCache(Class<T> valueType) {
+        Map<Resource, T> cache =
+            metadataReaders == null ? null : metadataReaders.asResourceCache(valueType);
+        return cache != null ? cache : super.getResourceCache(valueType);
       }
-    } else {
-      log.info("Spring Context {} is already running.", getSpringContextName(bnd));
-    }
-    return appCtx;
-  }
-
-  private ConfigurableApplicationContext getOrCreateSpringRootContext(Bundle bnd) {
-    String rootContextName = getSpringRootContextName(bnd);
-    String configCls = bnd.getHeaders().get(SpringMvcConstants.ROOT_CONTEXT_CONFIG_CLASSES);
-    if (configCls == null) {
-      return null;
+    };
+    appCtx.setDisplayName(springContextName);
+    appCtx.setApplicationStartup(new TimelineApplicationStartup(timeline, springContextName));
+    appCtx.setResourceLoader(resLoader);
+    appCtx.getBeanFactory()
+        .registerSingleton(SpringMvcConstants.BUNDLE_CONTEXT, bnd.getBundleContext());
+    if (isLazyInit(descriptor)) {
+      appCtx.addBeanFactoryPostProcessor(new LazyInitBeanFactoryPostProcessor());
     }
-    DispatcherServlet dispatcherServlet = getDispacher(bnd);
-    WebApplicationContext webContext = null;
-    if (dispatcherServlet != null) {
-      webContext = dispatcherServlet.getWebApplicationContext();
-    }
-    GenericApplicationContext rootCtx = null;
-    if (webContext != null) {
-      rootCtx = (GenericApplicationContext) webContext.getParent();
-    }
-    if (rootCtx == null) {
-      log.info("Creating Spring Root Context: {} ......", rootContextName);
-      OsgiBundleResourcePatternResolver resLoader = new OsgiBundleResourcePatternResolver(bnd);
-      rootCtx = new GenericApplicationContext();
-      rootCtx.setDisplayName(rootContextName);
-      rootCtx.setResourceLoader(resLoader);
-      rootCtx.getBeanFactory()
-          .registerSingleton(SpringMvcConstants.BUNDLE_CONTEXT, bnd.getBundleContext());
-      log.info("Loading spring root context configuration classes for {} .....", rootContextName);
+    List<String> configCls = descriptor.getConfigClasses();
+    if (configCls != null) {
+      log.info("Loading spring context configuration classes for {} .....", springContextName);
+      StartupTimeline.Phase phase = timeline.begin(StartupTimeline.CONFIG_CLASSES);
       AnnotatedBeanDefinitionReader annotatedBeanDefinitionReader =
-          new AnnotatedBeanDefinitionReader(rootCtx);
-      String[] cfgs = configCls.split(",");
-      Arrays.stream(cfgs).forEach(c -> {
+          new AnnotatedBeanDefinitionReader(appCtx);
+      configCls.forEach(c -> {
         try {
-          annotatedBeanDefinitionReader.register(bnd.loadClass(c.trim()));
+          annotatedBeanDefinitionReader.register(bnd.loadClass(c));
         } catch (Exception e) {
           log.error("Failed to load {}", c, e);
         }
       });
-    } else {
-      log.info("Spring Root Context {} is already running.", getSpringContextName(bnd));
+      phase.end();
+    }
+    return appCtx;
+  }
+
+  private ConfigurableApplicationContext createSpringRootContext(Bundle bnd,
+      SpringMvcBundleDescriptor descriptor, ResourcePatternResolver resLoader,
+      MetadataReaderCache metadataReaders, String rootContextName, StartupTimeline timeline) {
+    List<String> configCls = descriptor.getRootConfigClasses();
+    if (configCls == null) {
+      return null;
     }
+    log.info("Creating Spring Root Context: {} ......", rootContextName);
+    GenericApplicationContext rootCtx = new GenericApplicationContext() {
+      @Override
+      public <T> Map<Resource, T> getResourceCache(Class<T> valueType) {
+        Map<Resource, T> cache =
+            metadataReaders == null ? null : metadataReaders.asResourceCache(valueType);
+        return cache != null ? cache : super.getResourceCache(valueType);
+      }
+    };
+    rootCtx.setDisplayName(rootContextName);
+    rootCtx.setApplicationStartup(new TimelineApplicationStartup(timeline, rootContextName));
+    rootCtx.setResourceLoader(resLoader);
+    rootCtx.getBeanFactory()
+        .registerSingleton(SpringMvcConstants.BUNDLE_CONTEXT, bnd.getBundleContext());
+    if (isLazyInit(descriptor)) {
+      rootCtx.addBeanFactoryPostProcessor(new LazyInitBeanFactoryPostProcessor());
+    }
+    log.info("Loading spring root context configuration classes for {} .....", rootContextName);
+    StartupTimeline.Phase phase = timeline.begin(StartupTimeline.ROOT_CONFIG_CLASSES);
+    AnnotatedBeanDefinitionReader annotatedBeanDefinitionReader =
+        new AnnotatedBeanDefinitionReader(rootCtx);
+    configCls.forEach(c -> {
+      try {
+        annotatedBeanDefinitionReader.register(bnd.loadClass(c));
+      } catch (Exception e) {
+        log.error("Failed to load {}", c, e);
+      }
+    });
+    phase.end();
     return rootCtx;
   }
 
-  private DispatcherServlet getDispacher(Bundle bnd) {
-    BundleContext bndCtx = bnd.getBundleContext();
-    DispatcherServlet dispatcherServlet = null;
-    String servletName = getDispatcherName(bnd);
-    Collection<ServiceReference<Servlet>> serviceReferences = Collections.EMPTY_LIST;
-    try {
-      serviceReferences = bndCtx.getServiceReferences(Servlet.class,
-          String.format("(%s=%s)", HTTP_WHITEBOARD_SERVLET_NAME, servletName));
-    } catch (InvalidSyntaxException e) {
-      log.error("Unexpected", e);
+  private BundleDispatcherServlet createDispatcher(DispatcherEntry entry, ServletConfig config,
+      boolean warmup) throws ServletException {
+    GenericWebApplicationContext appCtx = entry.getSpringContext();
+    SpringMvcBundleDescriptor descriptor = entry.getDescriptor();
+    BundleDispatcherServlet dispatcherServlet =
+        new BundleDispatcherServlet(appCtx, entry.getClassLoader(), tcclConfiguration);
+    if (descriptor.getMaxThreads() > 0) {
+      dispatcherServlet.setBulkhead(new BundleBulkhead(entry.getBundle(),
+          descriptor.getMaxThreads(), descriptor.getMaxQueue(), entry.getClassLoader()));
+    }
+    long cacheSize = descriptor.getResponseCacheSize() >= 0 ? descriptor.getResponseCacheSize()
+        : responseCacheSize;
+    if (cacheSize > 0) {
+      dispatcherServlet.setResponseCache(new ResponseCache(cacheSize));
+    }
+    if (!descriptor.getStaticResources().isEmpty()) {
+      dispatcherServlet.setStaticResources(new StaticResourceIndex(entry.getBundle(),
+          descriptor.getStaticResources(), staticDataRoot, staticMemory, staticMaxAge));
     }
-    if (serviceReferences.size() > 0) {
-      ServiceReference<Servlet> ref = serviceReferences.iterator().next();
-      dispatcherServlet = (DispatcherServlet) bndCtx.getService(ref);
-      bndCtx.ungetService(ref);
+    if (profileSampleRate > 0 || profileSlowThreshold > 0) {
+      dispatcherServlet.setProfiler(new RequestPhaseProfiler(entry.getBundle(), profileSampleRate,
+          profileSlowThreshold));
+    }
+    dispatcherServlet.setTrieMappingEnabled(trieMappingEnabled);
+    if (warmup) {
+      // Initialize handler mappings, adapters, view resolvers ... before taking traffic.
+      long start = System.currentTimeMillis();
+      dispatcherServlet.init(config);
+      DispatcherWarmup.warmUp(dispatcherServlet, appCtx.getClassLoader(),
+          descriptor.getContextPath(), descriptor.getUrlPattern(), descriptor.getWarmupPaths());
+      log.info("Dispatcher {} warmed up in {} ms.", config.getServletName(),
+          System.currentTimeMillis() - start);
     }
     return dispatcherServlet;
   }
 
-  private void getOrCreateDispacher(Bundle bnd) {
-    BundleContext bndCtx = bnd.getBundleContext();
-    DispatcherServlet dispatcherServlet = getDispacher(bnd);
-    if (dispatcherServlet == null) {
-      String servletPattern = bnd.getHeaders().get(SpringMvcConstants.SERVLET_PATTERN);
-      if (servletPattern == null) {
-        servletPattern = "/*";
-      } else if (!servletPattern.endsWith("*")) {
-        if (!servletPattern.endsWith("/")) {
-          servletPattern += "/";
-        }
-        servletPattern += "*";
+  private void registerDispatcher(DispatcherEntry entry) throws ServletException {
+    Bundle bnd = entry.getBundle();
+    GenericWebApplicationContext appCtx = entry.getSpringContext();
+    SpringMvcBundleDescriptor descriptor = entry.getDescriptor();
+    Boolean warmup = descriptor.getWarmup();
+    BundleDispatcherServlet dispatcherServlet = createDispatcher(entry,
+        new ExtenderServletConfig(getDispatcherName(bnd), appCtx.getServletContext()),
+        warmup == null ? warmupByDefault : warmup);
+    Dictionary<String, String> props = new Hashtable<>();
+    props.put(HTTP_WHITEBOARD_SERVLET_PATTERN, descriptor.getUrlPattern());
+    props.put(HTTP_WHITEBOARD_SERVLET_NAME, getDispatcherName(bnd));
+    props.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, "true");
+    props.put(HTTP_WHITEBOARD_CONTEXT_SELECT,
+        String.format("(osgi.http.whiteboard.context.name=%s)",
+            ServletContextManager.contextPathToName(descriptor.getContextPath())));
+    props.put(SpringMvcConstants.EXTENDER_NAME, "true");
+    log.info("Registering Servlet: {} ...", getDispatcherName(bnd));
+    entry.setDispatcher(dispatcherServlet);
+    ServiceRegistration<Servlet> registration;
+    Servlet servlet = dispatcherServlet;
+    if (isBlueGreen(descriptor)) {
+      BlueGreenServlet front = new BlueGreenServlet(dispatcherServlet);
+      entry.setFront(front);
+      servlet = front;
+    }
+    if (routerRegistry != null) {
+      servlet.init(new ExtenderServletConfig(getDispatcherName(bnd), appCtx.getServletContext()));
+      try {
+        registration = routerRegistry.register(descriptor.getContextPath(),
+            descriptor.getUrlPattern(), getDispatcherName(bnd), servlet);
+      } catch (RuntimeException e) {
+        servlet.destroy();
+        throw e;
       }
-      dispatcherServlet = new DispatcherServlet() {
-        @Override
-        public void init(ServletConfig config) throws ServletException {
-          GenericWebApplicationContext appCtx = getOrCreateSpringContext(bnd);
-          ServletContext servletContext = config.getServletContext();
-          appCtx.setServletContext(servletContext);
-          appCtx.setClassLoader(servletContext.getClassLoader());
-          ConfigurableApplicationContext rootCtx = getOrCreateSpringRootContext(bnd);
-          if (rootCtx != null) {
-            appCtx.setParent(rootCtx);
-            rootCtx.setClassLoader(servletContext.getClassLoader());
-            rootCtx.refresh();
-          }
-          setApplicationContext(appCtx);
-          appCtx.getBeanFactory()
-              .registerSingleton("dispatcherServletRegistration",
-                  dispatcherRegs.get(getDispatcherName(bnd)));
-          super.init(config);
-        }
-      };
-      Dictionary<String, String> props = new Hashtable<>();
-      props.put(HTTP_WHITEBOARD_SERVLET_PATTERN, servletPattern);
-      props.put(HTTP_WHITEBOARD_SERVLET_NAME, getDispatcherName(bnd));
-      props.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, "true");
-      props.put(HTTP_WHITEBOARD_CONTEXT_SELECT,
-          String.format("(osgi.http.whiteboard.context.name=%s)",
-              ServletContextManager.contextPathToName(getCtxPath(bnd))));
-      props.put(SpringMvcConstants.EXTENDER_NAME, "true");
-      log.info("Registering Servlet: {} ...", getDispatcherName(bnd));
-      dispatcherRegs.put(getDispatcherName(bnd),
-          bndCtx.registerService(Servlet.class, dispatcherServlet, props));
-    }
-  }
-
-  private Set<DispatcherServlet> listDispatchers() {
-    Set<DispatcherServlet> dispatchers = new HashSet<>();
-    Collection<ServiceReference<Servlet>> serviceReferences;
-    try {
-      serviceReferences = extender.getServiceReferences(Servlet.class,
-          String.format("(%s=%s)", SpringMvcConstants.EXTENDER_NAME, "true"));
-      serviceReferences.forEach((ref) -> {
-        Servlet servlet = extender.getService(ref);
-        if (servlet instanceof DispatcherServlet) {
-          dispatchers.add((DispatcherServlet) servlet);
-        }
-        extender.ungetService(ref);
-      });
-    } catch (InvalidSyntaxException e) {
-      log.error("Unexpected Exception", e);
+    } else if (servlet != dispatcherServlet) {
+      // Registered by the extender, so that it outlives the bundle while it is being updated.
+      registration = extender.registerService(Servlet.class, servlet, props);
+    } else {
+      registration = bnd.getBundleContext().registerService(Servlet.class, dispatcherServlet, props);
     }
-    return dispatchers;
+    entry.setRegistration(registration);
+    appCtx.getBeanFactory().registerSingleton("dispatcherServletRegistration", registration);
+  }
+
+  private Stream<DispatcherEntry> activeEntries() {
+    return dispatcherRegistry.entries().stream()
+        .filter(DispatcherEntry::isServing);
   }
 
   @Override
   public void scanAndLoadSpringMvcConfigs() {
-    Arrays.stream(extender.getBundles())
-        .filter((b) -> b.getState() == Bundle.ACTIVE && mvcEnabled(b))
+    bundleTracker.getSpringMvcBundles().stream()
+        .filter((b) -> b.getState() == Bundle.ACTIVE)
         .forEach(this::createSpringMvcConfig);
   }
 
   @Override
   public void destroyAllSpringMvcConfigs() {
-    Arrays.stream(extender.getBundles())
-        .filter((b) -> b.getState() == Bundle.ACTIVE && mvcEnabled(b))
-        .forEach(this::destroySpringMvcConfig);
+    destroyAllSpringMvcConfigs(null);
+  }
+
+  @Override
+  public Collection<String> destroyAllSpringMvcConfigsWithReport() {
+    return destroyAllSpringMvcConfigs(null);
+  }
+
+  /**
+   * @param startups the pool whose startups should be awaited, null not to wait for them.
+   */
+  private Collection<String> destroyAllSpringMvcConfigs(SpringContextStartupPool startups) {
+    List<DispatcherEntry> entries = new ArrayList<>();
+    dispatcherRegistry.entries().forEach((e) -> {
+      if (dispatcherRegistry.remove(e)) {
+        // Entries still starting up are destroyed by their startup task.
+        DispatcherEntry.State state = e.stop();
+        if (state != DispatcherEntry.State.STARTING && state != DispatcherEntry.State.STOPPING) {
+          entries.add(e);
+        }
+      }
+    });
+    return shutdownCoordinator.shutdown(entries, this::closeSpringContexts, startups);
   }
 
   @Override
   public Collection<ConfigurableApplicationContext> listSpringContexts() {
     Set<ConfigurableApplicationContext> applicationContexts = new HashSet<>();
-    listDispatchers().forEach((dispatcher) -> {
-      ConfigurableApplicationContext applicationContext =
-          (ConfigurableApplicationContext) dispatcher.getWebApplicationContext();
-      if (applicationContext != null) {
-        if (applicationContext.getParent() != null) {
-          applicationContexts.add((ConfigurableApplicationContext) applicationContext.getParent());
-        }
-        applicationContexts.add(applicationContext);
+    activeEntries().forEach((entry) -> {
+      if (entry.getSpringRootContext() != null) {
+        applicationContexts.add(entry.getSpringRootContext());
       }
+      applicationContexts.add(entry.getSpringContext());
     });
     return applicationContexts;
   }
 
   @Override
   public Collection<ServletContext> listServletContexts() {
-    return listDispatchers().stream()
-        .filter((s) -> s.getWebApplicationContext() != null)
-        .map((s) -> s.getWebApplicationContext().getServletContext())
+    return activeEntries()
+        .map((e) -> e.getSpringContext().getServletContext())
         .collect(Collectors.toSet());
   }
+
+  @Override
+  public CompletableFuture<ServletContext> whenServletContextReady(String contextPath) {
+    return servletContextManager.whenReady(contextPath);
+  }
+
+  @Override
+  public CompletableFuture<ServletContext> whenServletContextReady(String contextPath,
+      long timeout, TimeUnit unit) {
+    return servletContextManager.whenReady(contextPath, timeout, unit);
+  }
+
+  @Override
+  public Collection<ServletContextStatus> listServletContextStatus() {
+    return servletContextManager.listStatus();
+  }
+
+  @Override
+  public Collection<StartupReport> listStartupReports() {
+    return startupTimelines.values().stream()
+        .map(StartupTimeline::toReport)
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public Collection<MetadataCacheStats> listMetadataCaches() {
+    return resourceResolvers.values().stream()
+        .filter(r -> r.getMetadataReaderCache() != null)
+        .map(r -> {
+          MetadataReaderCache cache = r.getMetadataReaderCache();
+          return new MetadataCacheStats(r.getBundle().getBundleId(),
+              r.getBundle().getSymbolicName(), cache.size(), cache.getCapacity(),
+              cache.getHits(), cache.getMisses(), r.getResolvedPatterns());
+        })
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public Collection<ScanCacheEntry> listScanCache() {
+    return scanCache.list();
+  }
+
+  @Override
+  public void purgeScanCache(long bndId) {
+    scanCache.invalidate(bndId);
+  }
+
+  @Override
+  public void purgeScanCache() {
+    scanCache.purge();
+  }
+
+  @Override
+  public Collection<ContextFootprint> listFootprints(boolean estimateHeap) {
+    return activeEntries().map((e) -> getFootprint(e, estimateHeap)).collect(Collectors.toList());
+  }
+
+  private static ContextFootprint getFootprint(DispatcherEntry entry, boolean estimateHeap) {
+    List<ConfigurableListableBeanFactory> beanFactories = new ArrayList<>();
+    beanFactories.add(entry.getSpringContext().getBeanFactory());
+    if (entry.getSpringRootContext() != null && entry.getSharedRootContextName() == null) {
+      beanFactories.add(entry.getSpringRootContext().getBeanFactory());
+    }
+    int beanDefinitions = 0;
+    List<Object> singletons = new ArrayList<>();
+    for (ConfigurableListableBeanFactory bf : beanFactories) {
+      beanDefinitions += bf.getBeanDefinitionCount();
+      for (String name : bf.getSingletonNames()) {
+        singletons.add(bf.getSingleton(name));
+      }
+    }
+    Bundle bnd = entry.getBundle();
+    return new ContextFootprint(bnd.getBundleId(), bnd.getSymbolicName(),
+        entry.getSharedRootContextName(), beanDefinitions, singletons.size(),
+        FootprintEstimator.countLoadedClasses(entry.getClassLoader()),
+        estimateHeap ? FootprintEstimator.estimateRetainedHeap(singletons) : -1,
+        FootprintEstimator.countThreads(entry.getClassLoader()));
+  }
+
+  @Override
+  public Collection<RequestStats> getBundleStats() {
+    return activeEntries()
+        .filter((e) -> e.getStatsRecorder() != null)
+        .map((e) -> e.getStatsRecorder().getBundleStats(e.getBundle()))
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public Collection<RequestStats> getHandlerStats(long bndId) {
+    DispatcherEntry entry = dispatcherRegistry.getActive(bndId);
+    if (entry == null || entry.getStatsRecorder() == null) {
+      return Collections.emptyList();
+    }
+    return entry.getStatsRecorder().getHandlerStats(entry.getBundle());
+  }
+
+  @Override
+  public void resetStats(long bndId) {
+    DispatcherEntry entry = dispatcherRegistry.getActive(bndId);
+    if (entry != null && entry.getStatsRecorder() != null) {
+      entry.getStatsRecorder().reset();
+    }
+  }
+
+  @Override
+  public Collection<BulkheadStats> getBulkheadStats() {
+    return activeEntries()
+        .map(DispatcherEntry::getDispatcher)
+        .filter((d) -> d != null && d.getBulkhead() != null)
+        .map((d) -> d.getBulkhead().getStats())
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public void resetStats() {
+    activeEntries()
+        .filter((e) -> e.getStatsRecorder() != null)
+        .forEach((e) -> e.getStatsRecorder().reset());
+  }
 }
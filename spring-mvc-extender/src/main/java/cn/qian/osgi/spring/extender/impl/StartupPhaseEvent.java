@@ -0,0 +1,56 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.osgi.framework.Bundle;
+
+@Name("cn.qian.osgi.spring.extender.StartupPhase")
+@Label("Spring Mvc Startup Phase")
+@Category({"Spring Mvc Extender", "Startup"})
+@StackTrace(false)
+class StartupPhaseEvent extends Event {
+  @Label("Bundle Id")
+  long bundleId;
+  @Label("Bundle")
+  String bundle;
+  @Label("Phase")
+  String phase;
+
+  /**
+   * @return the started event, or null if it is not recorded.
+   */
+  static Object begin(Bundle bnd, String phase) {
+    StartupPhaseEvent event = new StartupPhaseEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.bundleId = bnd.getBundleId();
+    event.bundle = bnd.getSymbolicName();
+    event.phase = phase;
+    event.begin();
+    return event;
+  }
+
+  static void commit(Object event) {
+    ((StartupPhaseEvent) event).commit();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import cn.qian.osgi.spring.extender.api.BeanStartup;
+import cn.qian.osgi.spring.extender.api.StartupPhase;
+import cn.qian.osgi.spring.extender.api.StartupReport;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.osgi.framework.Bundle;
+
+/**
+ * Phases of the startup of a spring mvc bundle and the slowest beans of its contexts. Phases
+ * are emitted as JFR events as well, if JFR is available.
+ */
+public class StartupTimeline {
+  public static final String SERVLET_CONTEXT_WAIT = "servlet-context-wait";
+  public static final String STARTUP_QUEUE_WAIT = "startup-queue-wait";
+  public static final String ROOT_CONFIG_CLASSES = "root-config-classes";
+  public static final String ROOT_REFRESH = "root-refresh";
+  public static final String CONFIG_CLASSES = "config-classes";
+  public static final String REFRESH = "refresh";
+  public static final String DISPATCHER_INIT = "dispatcher-init";
+  public static final String PRE_INSTANTIATION = "pre-instantiation";
+  private static final int SLOWEST_BEANS = 20;
+  private static final Comparator<BeanStartup> BY_SELF_TIME =
+    Comparator.comparingLong(BeanStartup::getSelfTime);
+  private final Bundle bundle;
+  private final long startedAt = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private final List<Phase> phases = new CopyOnWriteArrayList<>();
+  /**
+   * Min-heap of the slowest beans, the fastest of them is dropped first.
+   */
+  private final PriorityQueue<BeanStartup> slowestBeans = new PriorityQueue<>(BY_SELF_TIME);
+  private int beans;
+  private volatile long finishNanos = -1;
+
+  public StartupTimeline(Bundle bundle) {
+    this.bundle = bundle;
+  }
+
+  public Bundle getBundle() {
+    return bundle;
+  }
+
+  public Phase begin(String name) {
+    Phase phase = new Phase(name);
+    phases.add(phase);
+    return phase;
+  }
+
+  /**
+   * The dispatcher is published.
+   */
+  public void finish() {
+    finishNanos = System.nanoTime();
+  }
+
+  void recordBean(String context, String beanName, long durationNanos, long selfNanos) {
+    BeanStartup bean = new BeanStartup(context, beanName,
+      TimeUnit.NANOSECONDS.toMicros(durationNanos), TimeUnit.NANOSECONDS.toMicros(selfNanos));
+    synchronized (slowestBeans) {
+      beans++;
+      if (slowestBeans.size() < SLOWEST_BEANS) {
+        slowestBeans.add(bean);
+      } else if (BY_SELF_TIME.compare(bean, slowestBeans.peek()) > 0) {
+        slowestBeans.poll();
+        slowestBeans.add(bean);
+      }
+    }
+  }
+
+  public StartupReport toReport() {
+    List<StartupPhase> phaseReports = phases.stream()
+      .map(p -> new StartupPhase(p.name, toMillis(p.startNanos - startNanos),
+        p.endNanos < 0 ? -1 : toMillis(p.endNanos - p.startNanos)))
+      .collect(Collectors.toList());
+    List<BeanStartup> beanReports;
+    int beanCount;
+    synchronized (slowestBeans) {
+      beanReports = new ArrayList<>(slowestBeans);
+      beanCount = beans;
+    }
+    beanReports.sort(BY_SELF_TIME.reversed());
+    long finish = finishNanos;
+    return new StartupReport(bundle.getBundleId(), bundle.getSymbolicName(), startedAt,
+      finish < 0 ? -1 : toMillis(finish - startNanos), phaseReports, beanCount, beanReports);
+  }
+
+  private static long toMillis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  public final class Phase {
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final Object event;
+    private volatile long endNanos = -1;
+
+    private Phase(String name) {
+      this.name = name;
+      event = JfrSupport.isAvailable() ? StartupPhaseEvent.begin(bundle, name) : null;
+    }
+
+    /**
+     * End the phase, only the first call counts.
+     */
+    public synchronized void end() {
+      if (endNanos < 0) {
+        endNanos = System.nanoTime();
+        if (event != null) {
+          StartupPhaseEvent.commit(event);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,477 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.osgi.framework.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Static resources of a bundle revision, indexed from its folders when the dispatcher is created
+ * and served ahead of spring mvc. A resource is read from the bundle once, on its first request,
+ * and extracted to the data area of the extender. Small resources requested often are promoted
+ * to memory by the {@link HotSet}, the others are copied from their file to the response stream
+ * (the servlet API offers no zero-copy path to the socket). Compressible resources get a gzip
+ * variant, built once unless the bundle carries a precompressed .gz entry. The ETags and
+ * Last-Modified derive from the bundle revision, so they stay valid until the bundle is updated.
+ */
+public class StaticResourceIndex {
+  private static final Logger log = LoggerFactory.getLogger(StaticResourceIndex.class);
+  private static final int MAX_MEMORY_ENTRY = 64 * 1024;
+  private static final int MIN_GZIP_SIZE = 1024;
+  private static final String GZIP_SUFFIX = ".gz";
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+  private static final AtomicLong sequence = new AtomicLong();
+  private final long bundleId;
+  private final long lastModified;
+  private final Map<String, Resource> resources;
+  private final File dataDir;
+  private final HotSet hotSet;
+  private final String cacheControl;
+
+  /**
+   * @param dataRoot folder to extract large resources to, null to stream them from the bundle.
+   */
+  public StaticResourceIndex(Bundle bnd, List<String> folders, File dataRoot, long memoryBudget,
+    long maxAge) {
+    bundleId = bnd.getBundleId();
+    lastModified = bnd.getLastModified();
+    Map<String, URL> entries = new HashMap<>();
+    for (String folder : folders) {
+      Enumeration<URL> urls = bnd.findEntries(folder, "*", true);
+      while (urls != null && urls.hasMoreElements()) {
+        URL url = urls.nextElement();
+        String path = url.getPath();
+        if (!path.endsWith("/")) {
+          entries.putIfAbsent(path, url);
+        }
+      }
+    }
+    Map<String, Resource> index = new HashMap<>();
+    entries.forEach((path, url) -> {
+      if (!path.endsWith(GZIP_SUFFIX)
+        || !entries.containsKey(path.substring(0, path.length() - GZIP_SUFFIX.length()))) {
+        index.put(path, new Resource(path, url, entries.get(path + GZIP_SUFFIX)));
+      }
+    });
+    resources = Collections.unmodifiableMap(index);
+    dataDir = dataRoot == null ? null
+      : new File(dataRoot, bundleId + "-" + sequence.incrementAndGet());
+    hotSet = new HotSet(memoryBudget, index.size());
+    cacheControl = "public, max-age=" + maxAge;
+    log.info("Indexed {} static resources of {}.", index.size(), bnd.getSymbolicName());
+  }
+
+  /**
+   * Remove what is left in the data area by a previous run.
+   */
+  public static void clean(File dataRoot) {
+    if (dataRoot != null && dataRoot.exists() && !FileSystemUtils.deleteRecursively(dataRoot)) {
+      log.warn("Failed to clean {}", dataRoot);
+    }
+  }
+
+  public int size() {
+    return resources.size();
+  }
+
+  /**
+   * @return false if the request is not for an indexed resource.
+   */
+  public boolean serve(HttpServletRequest request, HttpServletResponse response)
+    throws IOException {
+    String method = request.getMethod();
+    boolean head = "HEAD".equals(method);
+    if (!head && !"GET".equals(method)) {
+      return false;
+    }
+    String path = request.getPathInfo();
+    Resource resource = path == null ? null : resources.get(path);
+    if (resource == null) {
+      return false;
+    }
+    Content content = resource.load(request.getServletContext());
+    boolean gzip = content.gzip != null && acceptsGzip(request);
+    Body body = gzip ? content.gzip : content.identity;
+    String etag = gzip ? content.gzipEtag : content.etag;
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", lastModified);
+    response.setHeader("Cache-Control", cacheControl);
+    if (content.gzip != null) {
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+    if (isNotModified(request, etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    response.setContentType(content.contentType);
+    if (gzip) {
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    if (body.length <= Integer.MAX_VALUE) {
+      response.setContentLength((int) body.length);
+    } else {
+      response.setHeader("Content-Length", Long.toString(body.length));
+    }
+    if (!head) {
+      body.write(response.getOutputStream(), hotSet.get(body));
+    }
+    return true;
+  }
+
+  /**
+   * Delete the extracted resources.
+   */
+  public void close() {
+    clean(dataDir);
+  }
+
+  private boolean isNotModified(HttpServletRequest request, String etag) {
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null) {
+      return ResponseCache.matches(ifNoneMatch, etag);
+    }
+    long ifModifiedSince;
+    try {
+      ifModifiedSince = request.getDateHeader("If-Modified-Since");
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return ifModifiedSince >= 0 && lastModified / 1000 * 1000 <= ifModifiedSince;
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String acceptEncoding = request.getHeader("Accept-Encoding");
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+      String[] params = coding.split(";");
+      if ("gzip".equals(params[0].trim())) {
+        return params.length < 2 || !params[1].replace(" ", "").matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  private static boolean isCompressible(String contentType) {
+    return contentType.startsWith("text/") || contentType.contains("javascript")
+      || contentType.contains("json") || contentType.contains("xml")
+      || contentType.startsWith("image/svg");
+  }
+
+  /**
+   * @return null if the resource could not be extracted.
+   */
+  private File extractTarget(String name) {
+    if (dataDir == null || name.contains("..")) {
+      return null;
+    }
+    File file = new File(dataDir, name.substring(1));
+    File parent = file.getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      log.warn("Failed to create {}", parent);
+      return null;
+    }
+    return file;
+  }
+
+  private Body loadBody(URL url, String name) throws IOException {
+    File source = toFile(url);
+    if (source != null) {
+      return new Body(name, source, source.length());
+    }
+    File file = extractTarget(name);
+    try (InputStream in = url.openStream()) {
+      if (file == null) {
+        return new Body(name, url, StreamUtils.drain(in));
+      }
+      try (OutputStream out = new FileOutputStream(file)) {
+        StreamUtils.copy(in, out);
+      }
+    }
+    return new Body(name, file, file.length());
+  }
+
+  /**
+   * @return null if compressing does not pay off or there is no data area for the variant.
+   */
+  private Body compress(Body identity, String name) throws IOException {
+    File file = extractTarget(name + GZIP_SUFFIX);
+    if (file == null) {
+      return null;
+    }
+    try (InputStream in = identity.open();
+      OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+      StreamUtils.copy(in, out);
+    }
+    long length = file.length();
+    if (length >= identity.length) {
+      Files.delete(file.toPath());
+      return null;
+    }
+    return new Body(name + GZIP_SUFFIX, file, length);
+  }
+
+  private static File toFile(URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private final class Resource {
+    private final String path;
+    private final URL url;
+    private final URL gzipUrl;
+    private volatile Content content;
+
+    private Resource(String path, URL url, URL gzipUrl) {
+      this.path = path;
+      this.url = url;
+      this.gzipUrl = gzipUrl;
+    }
+
+    private Content load(ServletContext servletContext) throws IOException {
+      Content loaded = content;
+      if (loaded == null) {
+        synchronized (this) {
+          loaded = content;
+          if (loaded == null) {
+            String contentType = servletContext.getMimeType(path);
+            if (contentType == null) {
+              contentType = DEFAULT_CONTENT_TYPE;
+            }
+            Body identity = loadBody(url, path);
+            Body gzip = null;
+            if (gzipUrl != null) {
+              gzip = loadBody(gzipUrl, path + GZIP_SUFFIX);
+            } else if (identity.length >= MIN_GZIP_SIZE && isCompressible(contentType)) {
+              gzip = compress(identity, path);
+            }
+            String etag = "\"" + Long.toHexString(bundleId) + '-' + Long.toHexString(lastModified)
+              + '-' + Integer.toHexString(path.hashCode());
+            loaded = new Content(contentType, identity, etag + '"', gzip, etag + "-gz\"");
+            content = loaded;
+          }
+        }
+      }
+      return loaded;
+    }
+  }
+
+  private static final class Content {
+    private final String contentType;
+    private final Body identity;
+    private final String etag;
+    private final Body gzip;
+    private final String gzipEtag;
+
+    private Content(String contentType, Body identity, String etag, Body gzip, String gzipEtag) {
+      this.contentType = contentType;
+      this.identity = identity;
+      this.etag = etag;
+      this.gzip = gzip;
+      this.gzipEtag = gzipEtag;
+    }
+  }
+
+  /**
+   * Small bodies promoted to memory by their requests. While the budget lasts, every body
+   * requested is promoted. Then a body is only promoted if it is requested more often, as
+   * estimated by a {@link FrequencySketch}, than the least recently used bodies it would evict.
+   */
+  private static final class HotSet {
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Promoted bodies in access order, guarded by the lock.
+     */
+    private final LinkedHashMap<Body, Body> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final long budget;
+    private long free;
+
+    private HotSet(long budget, int expectedEntries) {
+      this.budget = budget;
+      this.free = budget;
+      this.sketch = new FrequencySketch(expectedEntries * 2);
+    }
+
+    /**
+     * Record a request of the body.
+     *
+     * @return the bytes of the body if it is in memory.
+     */
+    private byte[] get(Body body) {
+      byte[] bytes = body.hot;
+      if (body.length > MAX_MEMORY_ENTRY || body.length > budget) {
+        return null;
+      }
+      // Lossy, a request which could not get the lock is not worth waiting for.
+      if (!lock.tryLock()) {
+        return bytes;
+      }
+      try {
+        sketch.increment(body.name.hashCode());
+        if (bytes != null) {
+          resident.get(body);
+          return bytes;
+        }
+        if (body.promoting || !makeRoom(body)) {
+          return null;
+        }
+        body.promoting = true;
+      } finally {
+        lock.unlock();
+      }
+      byte[] loaded = null;
+      try {
+        loaded = body.readAll();
+      } catch (IOException e) {
+        log.debug("Failed to read {}: {}", body.name, e.toString());
+      }
+      lock.lock();
+      try {
+        body.promoting = false;
+        if (loaded != null) {
+          body.hot = loaded;
+          resident.put(body, body);
+        } else {
+          free += body.length;
+        }
+      } finally {
+        lock.unlock();
+      }
+      return loaded;
+    }
+
+    /**
+     * Evict the least recently used bodies for the candidate, if they are requested less often.
+     */
+    private boolean makeRoom(Body candidate) {
+      int frequency = sketch.frequency(candidate.name.hashCode());
+      List<Body> victims = new ArrayList<>();
+      long room = free;
+      for (Body victim : resident.keySet()) {
+        if (room >= candidate.length) {
+          break;
+        }
+        if (sketch.frequency(victim.name.hashCode()) >= frequency) {
+          return false;
+        }
+        victims.add(victim);
+        room += victim.length;
+      }
+      if (room < candidate.length) {
+        return false;
+      }
+      victims.forEach(v -> {
+        resident.remove(v);
+        v.hot = null;
+      });
+      free = room - candidate.length;
+      return true;
+    }
+  }
+
+  /**
+   * A file on disk or, without a data area, the bundle entry itself. Small bodies may have their
+   * bytes in memory too.
+   */
+  private static final class Body {
+    private final String name;
+    private final File file;
+    private final URL url;
+    private final long length;
+    private volatile byte[] hot;
+    /**
+     * Guarded by the lock of the {@link HotSet}.
+     */
+    private boolean promoting;
+
+    private Body(String name, File file, long length) {
+      this.name = name;
+      this.file = file;
+      this.url = null;
+      this.length = length;
+    }
+
+    private Body(String name, URL url, long length) {
+      this.name = name;
+      this.file = null;
+      this.url = url;
+      this.length = length;
+    }
+
+    private InputStream open() throws IOException {
+      return file != null ? new FileInputStream(file) : url.openStream();
+    }
+
+    private byte[] readAll() throws IOException {
+      if (file != null) {
+        return Files.readAllBytes(file.toPath());
+      }
+      try (InputStream in = url.openStream()) {
+        return StreamUtils.copyToByteArray(in);
+      }
+    }
+
+    /**
+     * @param bytes the bytes in memory, null to read the body.
+     */
+    private void write(OutputStream out, byte[] bytes) throws IOException {
+      if (bytes != null) {
+        out.write(bytes);
+      } else if (file != null) {
+        Files.copy(file.toPath(), out);
+      } else {
+        try (InputStream in = url.openStream()) {
+          StreamUtils.copy(in, out);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a shared bounded pool, in one ordered lane per key. Tasks of the same key run
+ * one at a time in submission order, tasks of different keys run concurrently.
+ */
+public class StripedTaskExecutor {
+  private static final Logger log = LoggerFactory.getLogger(StripedTaskExecutor.class);
+  private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor executor;
+
+  public StripedTaskExecutor(String name, int threads) {
+    AtomicInteger threadNo = new AtomicInteger();
+    String threadPrefix = StripedTaskExecutor.class.getPackage().getName() + "-" + name + "-";
+    // The queue holds at most one entry per lane.
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), r -> new Thread(r, threadPrefix + threadNo.incrementAndGet()));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  public void execute(String key, Runnable task) {
+    Lane lane = lanes.computeIfAbsent(key, Lane::new);
+    synchronized (lane) {
+      lane.tasks.add(task);
+      if (lane.scheduled) {
+        return;
+      }
+      lane.scheduled = true;
+    }
+    schedule(lane);
+  }
+
+  private void schedule(Lane lane) {
+    try {
+      executor.execute(lane);
+    } catch (RejectedExecutionException e) {
+      log.warn("Executor is shut down, dropping the tasks of {}.", lane.key);
+    }
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private final class Lane implements Runnable {
+    private final String key;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled;
+
+    private Lane(String key) {
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      Runnable task;
+      synchronized (this) {
+        task = tasks.poll();
+      }
+      try {
+        if (task != null) {
+          task.run();
+        }
+      } catch (RuntimeException e) {
+        log.error("Task of {} failed", key, e);
+      } finally {
+        boolean more;
+        synchronized (this) {
+          more = !tasks.isEmpty();
+          scheduled = more;
+        }
+        // Go to the back of the pool queue, so a busy lane does not starve the others.
+        if (more) {
+          schedule(this);
+        }
+      }
+    }
+  }
+}
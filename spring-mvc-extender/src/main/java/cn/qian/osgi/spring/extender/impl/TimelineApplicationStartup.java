@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.springframework.core.metrics.ApplicationStartup;
+import org.springframework.core.metrics.StartupStep;
+
+/**
+ * Records the time a spring context spends creating each bean into a {@link StartupTimeline},
+ * and as JFR events if JFR is available. The self time of a bean excludes the beans created
+ * while creating it.
+ */
+public class TimelineApplicationStartup implements ApplicationStartup {
+  private static final String BEAN_INSTANTIATION = "spring.beans.instantiate";
+  private static final String BEAN_NAME_TAG = "beanName";
+  private final StartupTimeline timeline;
+  private final String context;
+  private final AtomicLong ids = new AtomicLong();
+  private final ThreadLocal<Deque<Step>> currentSteps = ThreadLocal.withInitial(ArrayDeque::new);
+
+  public TimelineApplicationStartup(StartupTimeline timeline, String context) {
+    this.timeline = timeline;
+    this.context = context;
+  }
+
+  @Override
+  public StartupStep start(String name) {
+    Deque<Step> steps = currentSteps.get();
+    Step step = new Step(ids.incrementAndGet(), name, steps.peek());
+    steps.push(step);
+    return step;
+  }
+
+  private final class Step implements StartupStep {
+    private final long id;
+    private final String name;
+    private final Step parent;
+    private final List<Tag> tags = new ArrayList<>(1);
+    private final long startNanos = System.nanoTime();
+    private final Object event;
+    private long childNanos;
+    private String beanName;
+
+    private Step(long id, String name, Step parent) {
+      this.id = id;
+      this.name = name;
+      this.parent = parent;
+      event = JfrSupport.isAvailable() && BEAN_INSTANTIATION.equals(name)
+        ? BeanStartupEvent.begin(timeline.getBundle(), context) : null;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public long getId() {
+      return id;
+    }
+
+    @Override
+    public Long getParentId() {
+      return parent == null ? null : parent.id;
+    }
+
+    @Override
+    public StartupStep tag(String key, String value) {
+      if (BEAN_NAME_TAG.equals(key)) {
+        beanName = value;
+      }
+      tags.add(new Tag() {
+        @Override
+        public String getKey() {
+          return key;
+        }
+
+        @Override
+        public String getValue() {
+          return value;
+        }
+      });
+      return this;
+    }
+
+    @Override
+    public StartupStep tag(String key, Supplier<String> value) {
+      return tag(key, value.get());
+    }
+
+    @Override
+    public Tags getTags() {
+      return tags::iterator;
+    }
+
+    @Override
+    public void end() {
+      long duration = System.nanoTime() - startNanos;
+      Deque<Step> steps = currentSteps.get();
+      steps.remove(this);
+      if (steps.isEmpty()) {
+        currentSteps.remove();
+      }
+      if (parent != null) {
+        parent.childNanos += duration;
+      }
+      if (beanName != null && BEAN_INSTANTIATION.equals(name)) {
+        long selfNanos = duration - childNanos;
+        timeline.recordBean(context, beanName, duration, selfNanos);
+        if (event != null) {
+          BeanStartupEvent.commit(event, beanName, selfNanos);
+        }
+      }
+    }
+  }
+}
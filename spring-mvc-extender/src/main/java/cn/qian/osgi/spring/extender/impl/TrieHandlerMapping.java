@@ -0,0 +1,382 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package cn.qian.osgi.spring.extender.impl;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.cors.CorsConfiguration;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.AbstractHandlerMapping;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfoHandlerMapping;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+/**
+ * Answers the requests of a {@link RequestMappingHandlerMapping} from a trie of the path segments
+ * of its patterns, a literal segment or a whole "{variable}" per level. Instead of matching every
+ * templated pattern of the context against the path and sorting the matches, a request only
+ * meets the mappings whose patterns fit the path structurally. The common case, one mapping
+ * without conditions besides the methods, is taken without any pattern matching.
+ * <p>
+ * The answer must be the one of the delegate, so it declines (returns null) whenever it could
+ * differ: below patterns the trie could not hold (wildcards, regular expressions), for CORS, HEAD
+ * and OPTIONS requests, ambiguous matches and unusual paths. Interceptors and the CORS
+ * configuration, global or of the handler methods, are shared with the delegate. Mappings
+ * registered with the delegate at runtime are not seen.
+ */
+public class TrieHandlerMapping extends RequestMappingInfoHandlerMapping {
+  private static final Logger log = LoggerFactory.getLogger(TrieHandlerMapping.class);
+  private static final Object AMBIGUOUS = new Object();
+  private final RequestMappingHandlerMapping delegate;
+  private final Method hasCorsConfigurationSource;
+  private final Method getCorsConfiguration;
+  private final Node root = new Node();
+  private final boolean trailingSlashMatch;
+  private final boolean encodedPaths;
+
+  private TrieHandlerMapping(RequestMappingHandlerMapping delegate) {
+    setOrder(delegate.getOrder());
+    setUrlPathHelper(delegate.getUrlPathHelper());
+    setPathMatcher(delegate.getPathMatcher());
+    if (delegate.getPatternParser() != null) {
+      setPatternParser(delegate.getPatternParser());
+    }
+    setInterceptors(getAdaptedInterceptors(delegate));
+    initInterceptors();
+    // Cors requests are declined, others still get the Vary headers of the cors interceptor.
+    setCorsConfigurationSource(delegate.getCorsConfigurationSource());
+    setCorsProcessor(delegate.getCorsProcessor());
+    this.delegate = delegate;
+    hasCorsConfigurationSource = findHandlerMappingMethod("hasCorsConfigurationSource",
+      Object.class);
+    getCorsConfiguration = findHandlerMappingMethod("getCorsConfiguration", Object.class,
+      HttpServletRequest.class);
+    trailingSlashMatch = delegate.useTrailingSlashMatch();
+    encodedPaths = delegate.usesPathPatterns();
+    delegate.getHandlerMethods().forEach((info, handlerMethod) -> {
+      boolean simple = info.getPatternValues().size() == 1 && info.getParamsCondition().isEmpty()
+        && info.getHeadersCondition().isEmpty() && info.getConsumesCondition().isEmpty()
+        && info.getProducesCondition().isEmpty() && info.getCustomCondition() == null;
+      info.getPatternValues().forEach(p -> add(p, new Candidate(info, handlerMethod, simple)));
+    });
+  }
+
+  /**
+   * @return null if the first handler mapping of the dispatcher is no
+   *   {@link RequestMappingHandlerMapping} or its configuration is not supported.
+   */
+  @SuppressWarnings("deprecation")
+  public static TrieHandlerMapping create(List<HandlerMapping> handlerMappings, String name) {
+    if (handlerMappings == null || handlerMappings.isEmpty()
+      || !(handlerMappings.get(0) instanceof RequestMappingHandlerMapping)) {
+      log.info("Trie handler mapping is not used by {}: request mappings are not looked up first.",
+        name);
+      return null;
+    }
+    RequestMappingHandlerMapping delegate = (RequestMappingHandlerMapping) handlerMappings.get(0);
+    boolean caseSensitive = delegate.usesPathPatterns()
+      ? delegate.getPatternParser().isCaseSensitive()
+      : !delegate.getPathMatcher().match("/a", "/A");
+    if (delegate.useSuffixPatternMatch() || !caseSensitive) {
+      log.info("Trie handler mapping is not used by {}: unsupported path matching.", name);
+      return null;
+    }
+    try {
+      TrieHandlerMapping mapping = new TrieHandlerMapping(delegate);
+      if (mapping.root.fallback) {
+        log.info("Trie handler mapping is not used by {}: a pattern matches at the root.", name);
+        return null;
+      }
+      return mapping;
+    } catch (RuntimeException e) {
+      log.warn("Trie handler mapping is not used by {}", name, e);
+      return null;
+    }
+  }
+
+  private static Object[] getAdaptedInterceptors(AbstractHandlerMapping mapping) {
+    Method method = findHandlerMappingMethod("getAdaptedInterceptors");
+    return (Object[]) ReflectionUtils.invokeMethod(method, mapping);
+  }
+
+  private static Method findHandlerMappingMethod(String name, Class<?>... paramTypes) {
+    Method method = ReflectionUtils.findMethod(AbstractHandlerMapping.class, name, paramTypes);
+    if (method == null) {
+      throw new IllegalStateException(name + " of the handler mapping is not accessible.");
+    }
+    ReflectionUtils.makeAccessible(method);
+    return method;
+  }
+
+  private static boolean isTemplate(String segment) {
+    return segment.length() > 2 && segment.charAt(0) == '{'
+      && segment.indexOf('}') == segment.length() - 1 && segment.indexOf(':') < 0;
+  }
+
+  private static boolean isLiteral(String segment) {
+    for (int i = 0; i < segment.length(); i++) {
+      char c = segment.charAt(i);
+      if (c == '*' || c == '?' || c == '{' || c == '}') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void add(String pattern, Candidate candidate) {
+    if (!pattern.isEmpty() && !pattern.startsWith("/")) {
+      root.fallback = true;
+      return;
+    }
+    Node node = root;
+    boolean literal = true;
+    int pos = 0;
+    while (pos < pattern.length()) {
+      int next = pattern.indexOf('/', pos + 1);
+      if (next < 0) {
+        next = pattern.length();
+      }
+      String segment = pattern.substring(pos + 1, next);
+      if (isTemplate(segment)) {
+        literal = false;
+        if (node.template == null) {
+          node.template = new Node();
+        }
+        node = node.template;
+      } else if (literal && isLiteral(segment)) {
+        node = node.literals.computeIfAbsent(segment, s -> new Node());
+      } else {
+        // Paths below the literal part of the pattern are left to the delegate.
+        fallbackBelow(pattern);
+        return;
+      }
+      pos = next;
+    }
+    node.candidates.add(candidate);
+  }
+
+  private void fallbackBelow(String pattern) {
+    Node node = root;
+    int pos = 0;
+    while (pos < pattern.length()) {
+      int next = pattern.indexOf('/', pos + 1);
+      if (next < 0) {
+        next = pattern.length();
+      }
+      String segment = pattern.substring(pos + 1, next);
+      if (!isLiteral(segment) || isTemplate(segment)) {
+        break;
+      }
+      node = node.literals.computeIfAbsent(segment, s -> new Node());
+      pos = next;
+    }
+    node.fallback = true;
+  }
+
+  @Override
+  protected boolean isHandler(Class<?> beanType) {
+    return false;
+  }
+
+  @Override
+  protected RequestMappingInfo getMappingForMethod(Method method, Class<?> handlerType) {
+    return null;
+  }
+
+  @Override
+  protected boolean hasCorsConfigurationSource(Object handler) {
+    return (Boolean) ReflectionUtils.invokeMethod(hasCorsConfigurationSource, delegate, handler);
+  }
+
+  @Override
+  protected CorsConfiguration getCorsConfiguration(Object handler, HttpServletRequest request) {
+    return (CorsConfiguration) ReflectionUtils.invokeMethod(getCorsConfiguration, delegate, handler,
+      request);
+  }
+
+  @Override
+  protected HandlerMethod lookupHandlerMethod(String lookupPath, HttpServletRequest request) {
+    RequestMethod method = resolve(request.getMethod());
+    if (method == null || method == RequestMethod.HEAD || method == RequestMethod.OPTIONS
+      || CorsUtils.isCorsRequest(request) || !isSupported(lookupPath)) {
+      return null;
+    }
+    // Patterns which are no literals of their own could match anywhere below.
+    Node node = root;
+    int pos = 0;
+    while (node != null && pos < lookupPath.length()) {
+      if (node.fallback) {
+        return null;
+      }
+      int next = nextSlash(lookupPath, pos);
+      node = node.literals.get(lookupPath.substring(pos + 1, next));
+      pos = next;
+    }
+    if (node != null && node.fallback) {
+      return null;
+    }
+    // Direct paths first, as the delegate does.
+    if (node != null && !node.candidates.isEmpty()) {
+      Object selected = select(node.candidates, method, lookupPath, request, true);
+      if (selected != null) {
+        return selected == AMBIGUOUS ? null : (HandlerMethod) selected;
+      }
+    }
+    List<Node> leaves = new ArrayList<>(2);
+    collect(root, lookupPath, 0, leaves);
+    int exact = leaves.size();
+    if (trailingSlashMatch && lookupPath.length() > 1 && lookupPath.endsWith("/")) {
+      collect(root, lookupPath.substring(0, lookupPath.length() - 1), 0, leaves);
+    }
+    Object selected;
+    if (leaves.size() == 1) {
+      selected = select(leaves.get(0).candidates, method, lookupPath, request, exact == 1);
+    } else {
+      List<Candidate> candidates = new ArrayList<>();
+      leaves.forEach(l -> candidates.addAll(l.candidates));
+      selected = select(candidates, method, lookupPath, request, false);
+    }
+    return selected instanceof HandlerMethod ? (HandlerMethod) selected : null;
+  }
+
+  private boolean isSupported(String lookupPath) {
+    if (!lookupPath.startsWith("/") || lookupPath.contains("//")) {
+      return false;
+    }
+    // Encoded or with matrix variables, the path would not compare to the pattern literals.
+    return !encodedPaths || (lookupPath.indexOf('%') < 0 && lookupPath.indexOf(';') < 0);
+  }
+
+  private static RequestMethod resolve(String method) {
+    try {
+      return RequestMethod.valueOf(method);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static int nextSlash(String path, int pos) {
+    int next = path.indexOf('/', pos + 1);
+    return next < 0 ? path.length() : next;
+  }
+
+  private void collect(Node node, String path, int pos, List<Node> leaves) {
+    if (pos == path.length()) {
+      if (!node.candidates.isEmpty()) {
+        leaves.add(node);
+      }
+      return;
+    }
+    int next = nextSlash(path, pos);
+    String segment = path.substring(pos + 1, next);
+    Node literal = node.literals.get(segment);
+    if (literal != null) {
+      collect(literal, path, next, leaves);
+    }
+    if (node.template != null && !segment.isEmpty()) {
+      collect(node.template, path, next, leaves);
+    }
+  }
+
+  /**
+   * @param exact the candidates match the path as it is, their patterns need not be narrowed.
+   * @return the handler method, null if no candidate matches or {@link #AMBIGUOUS}.
+   */
+  private Object select(List<Candidate> candidates, RequestMethod method, String lookupPath,
+    HttpServletRequest request, boolean exact) {
+    Candidate only = null;
+    boolean allSimple = exact;
+    int matching = 0;
+    for (Candidate c : candidates) {
+      allSimple &= c.simple;
+      if (c.accepts(method)) {
+        matching++;
+        only = c;
+      }
+    }
+    if (allSimple && matching == 1) {
+      return handle(only.info, only.handlerMethod, lookupPath, request);
+    }
+    Candidate best = null;
+    RequestMappingInfo bestMatch = null;
+    boolean ambiguous = false;
+    for (Candidate c : candidates) {
+      RequestMappingInfo match = c.info.getMatchingCondition(request);
+      if (match == null) {
+        continue;
+      }
+      int order = bestMatch == null ? -1 : match.compareTo(bestMatch, request);
+      if (order < 0) {
+        best = c;
+        bestMatch = match;
+        ambiguous = false;
+      } else if (order == 0 && c.handlerMethod != best.handlerMethod) {
+        ambiguous = true;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    return ambiguous ? AMBIGUOUS : handle(bestMatch, best.handlerMethod, lookupPath, request);
+  }
+
+  private HandlerMethod handle(RequestMappingInfo info, HandlerMethod handlerMethod,
+    String lookupPath, HttpServletRequest request) {
+    request.setAttribute(BEST_MATCHING_HANDLER_ATTRIBUTE, handlerMethod);
+    handleMatch(info, lookupPath, request);
+    return handlerMethod;
+  }
+
+  private static final class Node {
+    private final Map<String, Node> literals = new HashMap<>();
+    private final List<Candidate> candidates = new ArrayList<>(1);
+    private Node template;
+    /**
+     * A pattern which is no path of literals and variables starts here.
+     */
+    private boolean fallback;
+  }
+
+  private static final class Candidate {
+    private final RequestMappingInfo info;
+    private final HandlerMethod handlerMethod;
+    private final boolean simple;
+    private final Set<RequestMethod> methods;
+
+    private Candidate(RequestMappingInfo info, HandlerMethod handlerMethod, boolean simple) {
+      this.info = info;
+      this.handlerMethod = handlerMethod;
+      this.simple = simple;
+      this.methods = info.getMethodsCondition().getMethods();
+    }
+
+    private boolean accepts(RequestMethod method) {
+      return methods.isEmpty() || methods.contains(method);
+    }
+  }
+}